@@ -1,4 +1,17 @@
 // package Creational.AbstractFactory;
+// needs JDK 21 (virtual threads, and ExecutorService as a try-with-resources resource).
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /*
@@ -274,17 +287,223 @@ class StripeGateway implements PaymentGateway {
 
 interface Invoice{
     void generateInvoice();
+
+    // [5] generating an invoice is really two steps:
+    // prepare -> tax lines, totals, the pdf. slow, but safe to throw away if the payment fails.
+    // commit  -> give it a number, store it, email it. must only happen for a paid order.
+    default InvoiceDraft prepare(double amount){
+        return new InvoiceDraft(this, amount);
+    }
+    default void commit(InvoiceDraft draft){
+        generateInvoice();
+    }
 }
 
+final class InvoiceDraft {
+    final Invoice invoice;
+    final double amount;
+    final String number; // null for invoices without numbers.
+
+    InvoiceDraft(Invoice invoice, double amount){
+        this(invoice, amount, null);
+    }
+
+    InvoiceDraft(Invoice invoice, double amount, String number){
+        this.invoice = invoice;
+        this.amount = amount;
+        this.number = number;
+    }
+}
+
+// [7] the number is taken in prepare, before the payment. if the number store fails the order fails
+// before the customer is charged. a number taken for an order that is then not paid is a gap, never reused.
 class GSTInvoice implements Invoice {
     public void generateInvoice(){
-        System.out.println("Generating GST Invoice for India");
+        commit(prepare(0));
+    }
+    @Override
+    public InvoiceDraft prepare(double amount){
+        return new InvoiceDraft(this, amount, "IN-" + InvoiceNumbers.next("IN"));
+    }
+    @Override
+    public void commit(InvoiceDraft draft){
+        System.out.println("Generating GST Invoice " + draft.number + " for India");
     }
 }
 
 class USInvoice implements Invoice {
     public void generateInvoice(){
-        System.out.println("Generating Invoice for US");
+        commit(prepare(0));
+    }
+    @Override
+    public InvoiceDraft prepare(double amount){
+        return new InvoiceDraft(this, amount, "US-" + InvoiceNumbers.next("US"));
+    }
+    @Override
+    public void commit(InvoiceDraft draft){
+        System.out.println("Generating Invoice " + draft.number + " for US");
+    }
+}
+
+// [7] invoice numbers.
+// every invoice needs a number, increasing per region, never used twice, not even after a crash.
+// one lock around one counter would make every checkout in the region wait in a single line.
+// instead every thread leases a block of numbers (say 1000..1063) and takes the next number from it,
+// no lock, nobody else touches that lease. only when a block runs out the thread takes the next one
+// from the shared counter with a single CAS.
+// a virtual thread usually lives for one checkout (see completeOrderAsync), a lease of its own would
+// throw away the rest of the block with the thread. virtual threads borrow a lease from a lock free pool
+// instead and put it back right after taking their number.
+// crash safety: the file stores a high water mark, a number that no issued number has reached yet.
+// a block is only handed out below that mark, and the mark is moved (fsync'd) far ahead in one go,
+// so the disk is touched once every `blocksPerSync` blocks, not per invoice.
+// after a restart we continue from the mark. numbers that were leased but not used are skipped (gaps are fine),
+// never reused.
+// a thread that exits leaves the rest of its block unused, that is just another gap.
+// trade off: numbers increase within a lease's block, but two leases work on different blocks,
+// so across threads a later invoice can get a smaller number. strict global order needs the single counter again.
+// the only lock is the one around writing the file, and next() only goes there when its new block is past the mark.
+// it is a ReentrantLock, not synchronized: a virtual thread waiting on the fsync must not pin its carrier.
+class InvoiceNumberAllocator {
+    private final Path file;
+    private final int blockSize;
+    private final int blocksPerSync;
+    private final AtomicLong nextBlockStart;
+    private volatile long durableUpTo; // numbers below this are covered by the file.
+    private final ThreadLocal<Lease> ownLease = ThreadLocal.withInitial(Lease::new);
+    private final ConcurrentLinkedQueue<Lease> borrowable = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock markLock = new ReentrantLock();
+
+    // only ever used by one thread at a time: its owner, or the virtual thread that borrowed it.
+    private static final class Lease {
+        long next;
+        long end;
+    }
+
+    InvoiceNumberAllocator(Path file, int blockSize, int blocksPerSync) throws IOException {
+        this.file = file;
+        this.blockSize = blockSize;
+        this.blocksPerSync = blocksPerSync;
+        long mark = Files.exists(file) ? readMark(file) : 1;
+        this.nextBlockStart = new AtomicLong(mark);
+        this.durableUpTo = mark;
+    }
+
+    // moves the mark ahead once, so the file is known to be writable before the first invoice.
+    void reserve(){
+        extendMark(nextBlockStart.get() + blockSize);
+    }
+
+    public long next(){
+        if(!Thread.currentThread().isVirtual()){
+            return take(ownLease.get());
+        }
+        Lease lease = borrowable.poll();
+        if(lease == null){
+            lease = new Lease(); // more virtual threads at once than leases so far.
+        }
+        try{
+            return take(lease);
+        } finally {
+            borrowable.offer(lease);
+        }
+    }
+
+    private long take(Lease lease){
+        if(lease.next == lease.end){
+            long start = nextBlockStart.getAndAdd(blockSize); // the one CAS, only once per block.
+            long end = start + blockSize;
+            if(end > durableUpTo){
+                extendMark(end);
+            }
+            lease.next = start;
+            lease.end = end;
+        }
+        return lease.next++;
+    }
+
+    // slow path, once every blocksPerSync blocks. locked so two threads dont both write the file.
+    private void extendMark(long needed){
+        markLock.lock();
+        try{
+            if(needed <= durableUpTo){
+                return; // someone else already moved it far enough.
+            }
+            long mark = needed + (long) blockSize * (blocksPerSync - 1);
+            try{
+                writeMark(file, mark);
+            } catch(IOException e){
+                throw new UncheckedIOException("Could not reserve invoice numbers in " + file, e);
+            }
+            durableUpTo = mark;
+        } finally {
+            markLock.unlock();
+        }
+    }
+
+    private static long readMark(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if(buffer.remaining() != Long.BYTES){
+            throw new IOException("Corrupt invoice number file: " + file);
+        }
+        return buffer.getLong();
+    }
+
+    // write to a temp file, fsync, then rename over the old one, so a crash leaves either the old or the new mark.
+    private static void writeMark(Path file, long mark) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, mark);
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
+
+// one allocator per region. opened once at startup, with a directory that survives a reboot (not a temp dir,
+// which is often in memory or wiped at boot; numbering would start at 1 again and reuse numbers).
+// opening writes the first mark, so a missing or read only directory stops the app at startup,
+// not in the middle of a checkout.
+final class InvoiceNumbers {
+    private static final ConcurrentHashMap<String, InvoiceNumberAllocator> allocators = new ConcurrentHashMap<>();
+
+    private InvoiceNumbers(){
+
+    }
+
+    // directory from -Dinvoice.numbers.dir, there is no default.
+    static void openFromSystemProperty(String... regions){
+        String dir = System.getProperty("invoice.numbers.dir");
+        if(dir == null){
+            throw new IllegalStateException("Set -Dinvoice.numbers.dir to a persistent directory for invoice numbers");
+        }
+        open(Path.of(dir), regions);
+    }
+
+    static void open(Path dir, String... regions){
+        if(!Files.isDirectory(dir)){
+            throw new IllegalStateException("Invoice number directory does not exist: " + dir);
+        }
+        for(String region : regions){
+            try{
+                InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(dir.resolve("invoice-numbers-" + region + ".seq"), 64, 100);
+                allocator.reserve();
+                allocators.put(region, allocator);
+            } catch(IOException | UncheckedIOException e){
+                throw new IllegalStateException("Could not open invoice numbers for " + region + " in " + dir, e);
+            }
+        }
+    }
+
+    static long next(String region){
+        InvoiceNumberAllocator allocator = allocators.get(region);
+        if(allocator == null){
+            throw new IllegalStateException("Invoice numbers for " + region + " were not opened at startup");
+        }
+        return allocator.next();
     }
 }
 interface RegionFactory{
@@ -325,6 +544,62 @@ class USFactory implements RegionFactory {
     }
 }
 
+// [6] region registry.
+// every checkout used to pick IndiaFactory/USFactory by comparing the country code,
+// then the factory picked the gateway with another string switch and created new objects each time.
+// the gateways and invoices dont keep any state, so each region's family is built once at startup:
+// country code -> (all its gateways + its invoice), one map lookup per checkout.
+final class RegionFamily {
+    final String countryCode;
+    private final Map<String, PaymentGateway> gateways;
+    final Invoice invoice;
+
+    private RegionFamily(String countryCode, Map<String, PaymentGateway> gateways, Invoice invoice){
+        this.countryCode = countryCode;
+        this.gateways = gateways;
+        this.invoice = invoice;
+    }
+
+    // asks the region's factory for everything once.
+    static RegionFamily build(String countryCode, RegionFactory factory, String... gatewayTypes){
+        Map<String, PaymentGateway> gateways = new HashMap<>();
+        for(String type : gatewayTypes){
+            gateways.put(type, factory.createPaymentGateway(type));
+        }
+        return new RegionFamily(countryCode, Map.copyOf(gateways), factory.createInvoice());
+    }
+
+    PaymentGateway gateway(String gatewayType){
+        PaymentGateway gateway = gateways.get(gatewayType);
+        if(gateway == null){
+            throw new IllegalArgumentException("Unknown payment gateway type for " + countryCode + ": " + gatewayType);
+        }
+        return gateway;
+    }
+}
+
+class RegionRegistry {
+    // checkouts read from any thread while a new country may be added, ConcurrentHashMap handles both without a lock on reads.
+    private static final Map<String, RegionFamily> families = new ConcurrentHashMap<>();
+    static {
+        register(RegionFamily.build("IN", new IndiaFactory(), "razorpay", "payu"));
+        register(RegionFamily.build("US", new USFactory(), "paypal", "stripe"));
+    }
+
+    // adding a country = one call, nothing else changes.
+    public static void register(RegionFamily family){
+        families.put(family.countryCode, family);
+    }
+
+    public static RegionFamily get(String countryCode){
+        RegionFamily family = families.get(countryCode);
+        if(family == null){
+            throw new IllegalArgumentException("Unsupported country: " + countryCode);
+        }
+        return family;
+    }
+}
+
 class CheckoutService {
     private PaymentGateway paymentGateway;
     private Invoice invoice;
@@ -333,9 +608,386 @@ class CheckoutService {
         this.paymentGateway = factory.createPaymentGateway(gatewayType);
         this.invoice = factory.createInvoice();
     }
+
+    // [6] family comes ready made from the registry.
+    public CheckoutService(String countryCode, String gatewayType) {
+        RegionFamily family = RegionRegistry.get(countryCode);
+        this.paymentGateway = family.gateway(gatewayType);
+        this.invoice = family.invoice;
+    }
     public void completeOrder(double amount) {
+        InvoiceDraft draft = invoice.prepare(amount); // [7] can fail, so it goes before the payment.
         paymentGateway.processPayment(amount);
-        invoice.generateInvoice();
+        invoice.commit(draft);
+    }
+
+    // [5] non blocking checkout.
+    // completeOrder runs payment, then invoice, on the caller's thread, so the caller waits for both one after another.
+    // here payment authorization and invoice preparation start together, the caller gets a future right away.
+    //  - payment too slow or failed -> the order is not paid, the prepared invoice is thrown away.
+    //    careful: a timed out call may still go through at the gateway later, that order needs a status check before a retry.
+    //  - invoice preparation too slow or failed -> fallback: prepare it again after the payment went through.
+    //  - the invoice is committed only after a successful payment.
+    public CompletableFuture<CheckoutResult> completeOrderAsync(double amount, long paymentTimeoutMillis, long invoiceTimeoutMillis, Executor executor) {
+        long start = System.nanoTime();
+        CompletableFuture<InvoiceDraft> draft = CompletableFuture.supplyAsync(() -> invoice.prepare(amount), executor)
+                .completeOnTimeout(null, invoiceTimeoutMillis, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> null); // null = prepare again later.
+        CompletableFuture<CheckoutResult.Status> payment = CompletableFuture
+                .supplyAsync(() -> {
+                    paymentGateway.processPayment(amount);
+                    return CheckoutResult.Status.PAID;
+                }, executor)
+                .orTimeout(paymentTimeoutMillis, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> e instanceof TimeoutException || e.getCause() instanceof TimeoutException
+                        ? CheckoutResult.Status.PAYMENT_TIMED_OUT : CheckoutResult.Status.PAYMENT_FAILED);
+
+        return payment.thenCombineAsync(draft, (status, prepared) -> {
+            if(status != CheckoutResult.Status.PAID){
+                return new CheckoutResult(status, false, System.nanoTime() - start);
+            }
+            InvoiceDraft toCommit = prepared != null ? prepared : invoice.prepare(amount);
+            invoice.commit(toCommit);
+            return new CheckoutResult(status, true, System.nanoTime() - start);
+        }, executor);
+    }
+}
+
+final class CheckoutResult {
+    enum Status { PAID, PAYMENT_FAILED, PAYMENT_TIMED_OUT }
+
+    final Status status;
+    final boolean invoiceCommitted;
+    final long latencyNanos;
+
+    CheckoutResult(Status status, boolean invoiceCommitted, long latencyNanos){
+        this.status = status;
+        this.invoiceCommitted = invoiceCommitted;
+        this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public String toString(){
+        return status + (invoiceCommitted ? ", invoice committed" : ", no invoice") + " in " + latencyNanos / 1_000_000 + "ms";
+    }
+}
+
+// [5] stand ins with real waiting in them, the print-only gateways above take no time at all.
+class SimulatedGateway implements PaymentGateway {
+    private volatile long latencyMillis;
+    private final double failureRate;
+
+    SimulatedGateway(long latencyMillis, double failureRate){
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+    }
+
+    // [8] change the latency while traffic is running, e.g. to simulate a gateway outage.
+    void setLatencyMillis(long latencyMillis){
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void processPayment(double amount) {
+        sleep(latencyMillis);
+        if(ThreadLocalRandom.current().nextDouble() < failureRate){
+            throw new IllegalStateException("Payment declined for " + amount);
+        }
+    }
+
+    static void sleep(long millis){
+        try{
+            Thread.sleep(millis);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+}
+
+class SimulatedInvoice implements Invoice {
+    private final long prepareMillis;
+    private final long commitMillis;
+
+    SimulatedInvoice(long prepareMillis, long commitMillis){
+        this.prepareMillis = prepareMillis;
+        this.commitMillis = commitMillis;
+    }
+
+    public void generateInvoice(){
+        commit(prepare(0));
+    }
+    @Override
+    public InvoiceDraft prepare(double amount){
+        SimulatedGateway.sleep(prepareMillis);
+        return new InvoiceDraft(this, amount);
+    }
+    @Override
+    public void commit(InvoiceDraft draft){
+        SimulatedGateway.sleep(commitMillis);
+    }
+}
+
+// region with the simulated parts, so CheckoutService is built the normal way through a factory.
+class SimulatedRegionFactory implements RegionFactory {
+    private final long paymentMillis;
+    private final long prepareMillis;
+
+    SimulatedRegionFactory(long paymentMillis, long prepareMillis){
+        this.paymentMillis = paymentMillis;
+        this.prepareMillis = prepareMillis;
+    }
+
+    public PaymentGateway createPaymentGateway(String gatewayType) {
+        return new SimulatedGateway(paymentMillis, 0.0);
+    }
+    public Invoice createInvoice() {
+        return new SimulatedInvoice(prepareMillis, 5);
+    }
+}
+
+// [8] bulkhead per gateway.
+// all gateways are called from the same request threads. if Paypal hangs for 30 seconds, every request
+// thread ends up stuck inside Paypal and Stripe, Razorpay, PayU checkouts can't even start.
+// a bulkhead (like the walls in a ship) gives each gateway its own small compartment:
+//  - at most `maxInFlight` calls inside the gateway at once (think: its connection pool size).
+//  - at most `maxQueued` callers waiting for a slot, each for at most `maxWaitMillis`.
+//  - anyone beyond that is rejected right away, the thread is free for other gateways.
+// it wraps any PaymentGateway, so the factories and CheckoutService don't change.
+class BulkheadGateway implements PaymentGateway {
+    private final String name;
+    private final PaymentGateway delegate;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final Semaphore slots;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder(); // got a slot, but the gateway threw.
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LatencyRecorder queueWait = new LatencyRecorder();
+    private final LatencyRecorder serviceTime = new LatencyRecorder();
+
+    BulkheadGateway(String name, PaymentGateway delegate, int maxInFlight, int maxQueued, long maxWaitMillis){
+        this.name = name;
+        this.delegate = delegate;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.slots = new Semaphore(maxInFlight, true); // fair, the ones waiting longest go first.
+    }
+
+    public void processPayment(double amount) {
+        long arrived = System.nanoTime();
+        try{
+            // the timed form with 0 keeps the fairness, plain tryAcquire() would jump ahead of the waiting callers.
+            if(!slots.tryAcquire(0, TimeUnit.MILLISECONDS)){
+                if(queued.incrementAndGet() > maxQueued){
+                    queued.decrementAndGet();
+                    rejected.increment();
+                    throw new RejectedExecutionException(name + " bulkhead full, payment of " + amount + " rejected");
+                }
+                try{
+                    if(!slots.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)){
+                        queueWait.record(System.nanoTime() - arrived); // a wait that gave up is still a wait.
+                        timedOut.increment();
+                        throw new RejectedExecutionException(name + " bulkhead: no slot within " + maxWaitMillis + "ms");
+                    }
+                } finally {
+                    queued.decrementAndGet();
+                }
+            }
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(name + " bulkhead: interrupted while waiting", e);
+        }
+        long started = System.nanoTime();
+        queueWait.record(started - arrived);
+        try{
+            delegate.processPayment(amount);
+            completed.increment();
+        } catch(RuntimeException e){
+            failed.increment();
+            throw e;
+        } finally {
+            serviceTime.record(System.nanoTime() - started);
+            slots.release();
+        }
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%s: completed=%d failed=%d rejected=%d timedOut=%d | queue wait p50=%.1fms p99=%.1fms | service p50=%.1fms p99=%.1fms",
+                name, completed.sum(), failed.sum(), rejected.sum(), timedOut.sum(),
+                queueWait.percentile(0.50) / 1e6, queueWait.percentile(0.99) / 1e6,
+                serviceTime.percentile(0.50) / 1e6, serviceTime.percentile(0.99) / 1e6);
+    }
+}
+
+// queue waits run from microseconds to the full timeout, so buckets grow with the value:
+// 8 per power of two (about 12% error), 512 counters in total, recorded without a lock.
+class LatencyRecorder {
+    private static final int SUB = 8;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+
+    void record(long nanos){
+        counts.getAndIncrement(indexOf(Math.max(1, nanos)));
+    }
+
+    private static int indexOf(long value){
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = exponent < 3 ? 0 : (int) ((value >>> (exponent - 3)) & (SUB - 1));
+        return exponent * SUB + sub;
+    }
+
+    long percentile(double quantile){
+        long total = 0;
+        for(int i = 0; i < counts.length(); i++){
+            total += counts.get(i);
+        }
+        if(total == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if(seen >= target){
+                int exponent = i / SUB;
+                return exponent < 3 ? 1L << exponent : (long) ((1.0 + (i % SUB + 0.5) / SUB) * (1L << exponent));
+            }
+        }
+        return 0;
+    }
+}
+
+// [8] 16 request threads, Paypal goes slow (1s per call) while Stripe stays at 20ms.
+// without bulkheads the Paypal calls take all 16 threads and Stripe checkouts wait behind them.
+//   javac Main.java && java BulkheadDemo
+class BulkheadDemo {
+    public static void main(String[] args) throws Exception {
+        for(boolean withBulkheads : new boolean[]{false, true}){
+            SimulatedGateway paypal = new SimulatedGateway(20, 0.0);
+            SimulatedGateway stripe = new SimulatedGateway(20, 0.0);
+            paypal.setLatencyMillis(1_000); // outage
+            PaymentGateway paypalSide = withBulkheads ? new BulkheadGateway("paypal", paypal, 4, 4, 50) : paypal;
+            PaymentGateway stripeSide = withBulkheads ? new BulkheadGateway("stripe", stripe, 8, 16, 200) : stripe;
+
+            ExecutorService requestThreads = Executors.newFixedThreadPool(16);
+            LatencyRecorder stripeCheckout = new LatencyRecorder();
+            LongAdder paypalRejected = new LongAdder();
+            LongAdder stripeRejected = new LongAdder();
+            List<Future<?>> requests = new ArrayList<>();
+            long start = System.nanoTime();
+            for(int i = 0; i < 200; i++){
+                boolean toPaypal = i % 4 == 0;
+                long submitted = System.nanoTime();
+                requests.add(requestThreads.submit(() -> {
+                    try{
+                        (toPaypal ? paypalSide : stripeSide).processPayment(10);
+                        if(!toPaypal){
+                            stripeCheckout.record(System.nanoTime() - submitted);
+                        }
+                    } catch(RejectedExecutionException e){
+                        (toPaypal ? paypalRejected : stripeRejected).increment();
+                    }
+                }));
+                Thread.sleep(2); // ~500 checkouts per second arriving.
+            }
+            for(Future<?> request : requests){
+                request.get();
+            }
+            requestThreads.shutdown();
+            System.out.printf("%s: all done in %dms, stripe checkout p50=%.0fms p99=%.0fms, rejected paypal=%d stripe=%d%n",
+                    withBulkheads ? "with bulkheads" : "no bulkheads", (System.nanoTime() - start) / 1_000_000,
+                    stripeCheckout.percentile(0.50) / 1e6, stripeCheckout.percentile(0.99) / 1e6, paypalRejected.sum(), stripeRejected.sum());
+            if(withBulkheads){
+                System.out.println("  " + paypalSide);
+                System.out.println("  " + stripeSide);
+            }
+        }
+    }
+}
+
+// [6] resolving gateway + invoice per checkout with 60 regions:
+// chain of country code compares + factory switch + new objects vs one registry lookup.
+//   javac Main.java && java RegionLookupBenchmark [lookups]
+class RegionLookupBenchmark {
+    private static volatile int sink;
+
+    public static void main(String[] args){
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int regions = 60;
+        String[] codes = new String[regions];
+        RegionFactory[] factories = new RegionFactory[regions];
+        String[] gatewayOf = new String[regions];
+        for(int i = 0; i < regions; i++){
+            codes[i] = String.format("R%02d", i);
+            boolean india = i % 2 == 0;
+            factories[i] = india ? new IndiaFactory() : new USFactory();
+            gatewayOf[i] = india ? "payu" : "stripe";
+            RegionRegistry.register(RegionFamily.build(codes[i], factories[i], india ? new String[]{"razorpay", "payu"} : new String[]{"paypal", "stripe"}));
+        }
+        // country codes as they arrive with a request, equal strings but not the same objects.
+        Random random = new Random(1);
+        int[] picks = new int[4096];
+        String[] requestCodes = new String[picks.length];
+        for(int i = 0; i < picks.length; i++){
+            picks[i] = random.nextInt(regions);
+            requestCodes[i] = new String(codes[picks[i]]);
+        }
+
+        for(int round = 0; round < 5; round++){ // last round counts, the rest warms up the JIT.
+            long start = System.nanoTime();
+            int h = 0;
+            for(int i = 0; i < lookups; i++){
+                int r = i & (picks.length - 1);
+                String code = requestCodes[r];
+                for(int region = 0; region < regions; region++){
+                    if(codes[region].equals(code)){
+                        h += System.identityHashCode(factories[region].createPaymentGateway(gatewayOf[picks[r]]));
+                        h += System.identityHashCode(factories[region].createInvoice());
+                        break;
+                    }
+                }
+            }
+            long chain = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(int i = 0; i < lookups; i++){
+                int r = i & (picks.length - 1);
+                RegionFamily family = RegionRegistry.get(requestCodes[r]);
+                h += System.identityHashCode(family.gateway(gatewayOf[picks[r]]));
+                h += System.identityHashCode(family.invoice);
+            }
+            long registry = System.nanoTime() - start;
+            sink = h;
+            if(round == 4){
+                System.out.printf("%d regions: compare chain + factory %.1f ns/checkout, registry %.1f ns/checkout%n",
+                        regions, (double) chain / lookups, (double) registry / lookups);
+            }
+        }
+    }
+}
+
+// [5] completeOrder vs completeOrderAsync latency, payment 80ms, invoice preparation 40ms.
+//   javac Main.java && java CheckoutBenchmark [orders]
+class CheckoutBenchmark {
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        CheckoutService checkout = new CheckoutService(new SimulatedRegionFactory(80, 40), "simulated");
+        long[] sync = new long[orders];
+        long[] async = new long[orders];
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()){
+            for(int i = 0; i < orders; i++){
+                long start = System.nanoTime();
+                checkout.completeOrder(100);
+                sync[i] = System.nanoTime() - start;
+                async[i] = checkout.completeOrderAsync(100, 500, 500, executor).get().latencyNanos;
+            }
+        }
+        Arrays.sort(sync);
+        Arrays.sort(async);
+        System.out.printf("sync:  p50 %dms, max %dms%n", sync[orders / 2] / 1_000_000, sync[orders - 1] / 1_000_000);
+        System.out.printf("async: p50 %dms, max %dms%n", async[orders / 2] / 1_000_000, async[orders - 1] / 1_000_000);
+        // sync ~ payment + prepare + commit, async ~ max(payment, prepare) + commit.
     }
 }
 
@@ -360,10 +1012,89 @@ public class Main {
         CheckoutService checkoutService = new CheckoutService("paypal", "US");
         checkoutService.checkOut(1500.0);
         */
+        // [7] invoice numbers must survive a reboot, so they live in a real directory, chosen once at startup.
+        //   java -Dinvoice.numbers.dir=/var/lib/shop/invoice-numbers Main
+        // without the flag the demo numbers go to a temp directory that is deleted at the end, nothing persists.
+        Path demoInvoiceDir = null;
+        try{
+            if(System.getProperty("invoice.numbers.dir") != null){
+                InvoiceNumbers.openFromSystemProperty("IN", "US");
+            }
+            else{
+                demoInvoiceDir = Files.createTempDirectory("invoice-numbers");
+                InvoiceNumbers.open(demoInvoiceDir, "IN", "US");
+            }
+        } catch(IOException e){
+            throw new IllegalStateException("Could not create the invoice number directory", e);
+        }
+
         // [4] with abstract factory pattern for US and India
         CheckoutService checkoutService = new CheckoutService(new IndiaFactory(), "razorpay");
         checkoutService.completeOrder(1000.0);
 
+        // [7] 4 threads taking invoice numbers at once, then a "restart" on the same file.
+        try{
+            Path seq = Files.createTempFile("invoice-numbers", ".seq");
+            Files.delete(seq); // start fresh.
+            InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(seq, 64, 100);
+            Set<Long> issued = ConcurrentHashMap.newKeySet();
+            Thread[] workers = new Thread[4];
+            for(int t = 0; t < workers.length; t++){
+                workers[t] = new Thread(() -> {
+                    for(int i = 0; i < 10_000; i++){
+                        issued.add(allocator.next());
+                    }
+                });
+                workers[t].start();
+            }
+            for(Thread worker : workers){
+                worker.join();
+            }
+            long highest = Collections.max(issued);
+            // one invoice per virtual thread, like completeOrderAsync does. they borrow the pooled leases.
+            Set<Long> perCheckout = ConcurrentHashMap.newKeySet();
+            try(ExecutorService checkouts = Executors.newVirtualThreadPerTaskExecutor()){
+                for(int i = 0; i < 100; i++){
+                    checkouts.execute(() -> perCheckout.add(allocator.next()));
+                }
+            }
+            long blocks = perCheckout.stream().map(n -> (n - 1) / 64).distinct().count();
+            System.out.println("100 checkouts on 100 virtual threads used " + blocks + " blocks of 64 numbers");
+            highest = Math.max(highest, Collections.max(perCheckout));
+            long afterRestart = new InvoiceNumberAllocator(seq, 64, 100).next();
+            System.out.println("issued " + issued.size() + " unique numbers, highest " + highest
+                    + ", first after restart " + afterRestart + " (never reused: " + (afterRestart > highest) + ")");
+            Files.delete(seq);
+        } catch(IOException e){
+            System.out.println("invoice number demo failed: " + e.getMessage());
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        // [6] family looked up by country code.
+        new CheckoutService("US", "stripe").completeOrder(49.0);
+
+        // [5] async checkout. the first gateway answers in time, the second one is too slow for the 100ms budget.
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()){
+            CompletableFuture<CheckoutResult> fast = new CheckoutService(new SimulatedRegionFactory(30, 20), "simulated")
+                    .completeOrderAsync(1000.0, 100, 100, executor);
+            CompletableFuture<CheckoutResult> slow = new CheckoutService(new SimulatedRegionFactory(300, 20), "simulated")
+                    .completeOrderAsync(1000.0, 100, 100, executor);
+            System.out.println("fast gateway: " + fast.join());
+            System.out.println("slow gateway: " + slow.join());
+        }
+
+        // [7] the demo's invoice numbers were only for this run.
+        if(demoInvoiceDir != null){
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(demoInvoiceDir)){
+                for(Path file : files){
+                    Files.delete(file);
+                }
+                Files.delete(demoInvoiceDir);
+            } catch(IOException e){
+                System.out.println("could not delete " + demoInvoiceDir + ": " + e.getMessage());
+            }
+        }
 
         //pros
         // consistency (Stripen+ USinvoice)
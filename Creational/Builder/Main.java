@@ -1,5 +1,25 @@
 // package Creational.Builder;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 //creational design pattern
 /* [1] without builder pattern
 //say developing food delivery app
@@ -133,6 +153,782 @@ class BurgerMeal{
 }
 */
 
+// [4] builder pattern for a high rate order feed.
+// [2] is fine for a few orders, but at tens of thousands of orders per second every order
+// allocates a builder, a toppings list (with its backing array) and the meal itself.
+// two changes:
+//  - the builder can be reset and reused, one per thread. toppings go into the builder's own scratch list.
+//  - toppings lists are interned, every meal with [lettuce, onion] points to the same immutable list.
+//    there are only so many combinations on a menu, so this also saves memory for meals kept in queues.
+
+// canonical immutable toppings lists. the scratch list is only used as the lookup key,
+// a hit costs no allocation, only a miss copies it.
+final class ToppingLists {
+    private static final int MAX_CACHED = 10_000; // stop caching if someone sends garbage combinations.
+    private static final ConcurrentHashMap<List<String>, List<String>> canonical = new ConcurrentHashMap<>();
+
+    private ToppingLists(){
+
+    }
+
+    // order matters, [onion, lettuce] and [lettuce, onion] are different combinations.
+    static List<String> canonical(List<String> toppings){
+        if(toppings.isEmpty()){
+            return List.of();
+        }
+        List<String> existing = canonical.get(toppings); // ArrayList and List.copyOf lists are equal if elements are equal.
+        if(existing != null){
+            return existing;
+        }
+        List<String> copy = List.copyOf(toppings);
+        if(canonical.size() >= MAX_CACHED){
+            return copy;
+        }
+        existing = canonical.putIfAbsent(copy, copy);
+        return existing != null ? existing : copy;
+    }
+}
+
+class BurgerMeal{
+    //Required
+    private final String bunType;
+    private final String patty;
+
+    //Optional
+    private final boolean hasCheese;
+    private final List<String> toppings; // never null, immutable and shared.
+    private final String side;
+    private final String drink;
+
+    private static final ThreadLocal<BurgerBuilder> threadBuilder = ThreadLocal.withInitial(() -> new BurgerBuilder(null, null));
+
+    private BurgerMeal(BurgerBuilder builder){
+        this.bunType = builder.bunType;
+        this.patty = builder.patty;
+        this.hasCheese = builder.hasCheese;
+        this.toppings = ToppingLists.canonical(builder.toppings);
+        this.side = builder.side;
+        this.drink = builder.drink;
+    }
+
+    // the calling thread's builder, reset for a new order. dont keep it or pass it to another thread,
+    // the next call on this thread hands out the same builder again.
+    public static BurgerBuilder builderForThread(String bunType, String patty){
+        return threadBuilder.get().reset(bunType, patty);
+    }
+
+    public String getBunType(){
+        return bunType;
+    }
+    public String getPatty(){
+        return patty;
+    }
+    public boolean hasCheese(){
+        return hasCheese;
+    }
+    public List<String> getToppings(){
+        return toppings;
+    }
+    public String getSide(){
+        return side;
+    }
+    public String getDrink(){
+        return drink;
+    }
+
+    public static class BurgerBuilder {
+        //Required (not final any more, reset() changes them)
+        private String bunType;
+        private String patty;
+
+        //Optional
+        private boolean hasCheese;
+        private final ArrayList<String> toppings = new ArrayList<>(8); // scratch, reused across orders.
+        private String side;
+        private String drink;
+
+        public BurgerBuilder(String bunType, String patty) {
+            reset(bunType, patty);
+        }
+
+        // back to a fresh builder, keeps the scratch list's capacity.
+        public BurgerBuilder reset(String bunType, String patty) {
+            this.bunType = bunType;
+            this.patty = patty;
+            this.hasCheese = false;
+            this.toppings.clear();
+            this.side = null;
+            this.drink = null;
+            return this;
+        }
+
+        public BurgerBuilder withCheese(boolean hasCheese) {
+            this.hasCheese = hasCheese;
+            return this;
+        }
+
+        public BurgerBuilder withToppings(List<String> toppings) {
+            this.toppings.clear();
+            for(int i = 0; i < toppings.size(); i++){
+                this.toppings.add(toppings.get(i));
+            }
+            return this;
+        }
+
+        // one topping at a time, so a feed parser doesnt need to build a list first.
+        public BurgerBuilder withTopping(String topping) {
+            this.toppings.add(topping);
+            return this;
+        }
+
+        public BurgerBuilder withSide(String side) {
+            this.side = side;
+            return this;
+        }
+
+        public BurgerBuilder withDrink(String drink) {
+            this.drink = drink;
+            return this;
+        }
+
+        public BurgerMeal build() {
+            return new BurgerMeal(this); // builder can be reset right after, the meal copies what it needs.
+        }
+    }
+    @Override
+        public String toString() {
+            return "BurgerMeal{" +
+                    "bunType='" + bunType + '\'' +
+                    ", patty='" + patty + '\'' +
+                    ", hasCheese=" + hasCheese +
+                    ", toppings=" + toppings +
+                    ", side='" + side + '\'' +
+                    ", drink='" + drink + '\'' +
+                    '}';
+        }
+}
+
+// [4] bytes allocated per built meal, new builder + list per order vs reused builder + interned toppings.
+//   javac Main.java && java BuilderBenchmark [orders]
+class BuilderBenchmark {
+    private static volatile int sink;
+
+    public static void main(String[] args){
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        String[] buns = {"wheat", "multigrain", "brioche"};
+        String[] patties = {"veg", "chicken", "paneer"};
+        String[][] toppingChoices = {{}, {"lettuce"}, {"lettuce", "onion"}, {"lettuce", "tomato", "jalapeno"}, {"onion", "pickle"}};
+        String[] sides = {null, "fries", "wedges"};
+        String[] drinks = {null, "coke", "lemonade"};
+
+        for(int round = 0; round < 4; round++){ // first rounds are JIT warmup.
+            long[] before = measure(() -> {
+                int h = 0;
+                for(int i = 0; i < orders; i++){
+                    String[] toppings = toppingChoices[i % toppingChoices.length];
+                    List<String> fromFeed = new ArrayList<>(toppings.length); // what a parser hands over today.
+                    for(String topping : toppings){
+                        fromFeed.add(topping);
+                    }
+                    BurgerMeal meal = new BurgerMeal.BurgerBuilder(buns[i % 3], patties[(i / 3) % 3])
+                            .withCheese((i & 1) == 0).withToppings(fromFeed)
+                            .withSide(sides[i % 3]).withDrink(drinks[(i / 2) % 3]).build();
+                    h += meal.getToppings().size();
+                }
+                sink = h;
+            });
+            long[] after = measure(() -> {
+                int h = 0;
+                for(int i = 0; i < orders; i++){
+                    BurgerMeal.BurgerBuilder builder = BurgerMeal.builderForThread(buns[i % 3], patties[(i / 3) % 3])
+                            .withCheese((i & 1) == 0).withSide(sides[i % 3]).withDrink(drinks[(i / 2) % 3]);
+                    for(String topping : toppingChoices[i % toppingChoices.length]){
+                        builder.withTopping(topping);
+                    }
+                    h += builder.build().getToppings().size();
+                }
+                sink = h;
+            });
+            System.out.printf("round %d: new builder %.1f ns %.0f B/meal | reused builder %.1f ns %.0f B/meal%n", round,
+                    (double) before[0] / orders, (double) before[1] / orders,
+                    (double) after[0] / orders, (double) after[1] / orders);
+        }
+    }
+
+    // {nanos, bytes allocated by this thread}
+    private static long[] measure(Runnable body){
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        return new long[]{ nanos, threads.getCurrentThreadAllocatedBytes() - bytesBefore };
+    }
+}
+
+// [5] compact binary form of an order.
+// a BurgerMeal is 4 strings + a list of strings, easily 200+ bytes per order once it sits in a queue
+// or goes over the wire as text. but the menu is fixed, every value comes from a short list.
+// so: enums for the fixed vocabularies, one bit per topping, and every order is exactly 8 bytes:
+//   [0] bun  [1] patty  [2] side (0 = none)  [3] drink (0 = none)  [4] flags (bit 0 = cheese)  [5] unused  [6..7] toppings bitset
+// note: a bitset has no order, decoded toppings come back in menu (enum) order.
+enum Bun {
+    WHEAT("wheat"), MULTIGRAIN("multigrain"), BRIOCHE("brioche");
+
+    final String label;
+    private static final Map<String, Bun> BY_LABEL = new HashMap<>();
+    static {
+        for(Bun bun : values()){
+            BY_LABEL.put(bun.label, bun);
+        }
+    }
+    private static final Bun[] VALUES = values(); // values() copies the array every call.
+
+    Bun(String label){
+        this.label = label;
+    }
+    static Bun of(String label){
+        Bun bun = BY_LABEL.get(label);
+        if(bun == null){
+            throw new IllegalArgumentException("Unknown bun: " + label);
+        }
+        return bun;
+    }
+    static Bun fromCode(int code){
+        return VALUES[code];
+    }
+}
+
+enum Patty {
+    VEG("veg"), CHICKEN("chicken"), PANEER("paneer"), ALOO_TIKKI("aloo-tikki");
+
+    final String label;
+    private static final Map<String, Patty> BY_LABEL = new HashMap<>();
+    static {
+        for(Patty patty : values()){
+            BY_LABEL.put(patty.label, patty);
+        }
+    }
+    private static final Patty[] VALUES = values();
+
+    Patty(String label){
+        this.label = label;
+    }
+    static Patty of(String label){
+        Patty patty = BY_LABEL.get(label);
+        if(patty == null){
+            throw new IllegalArgumentException("Unknown patty: " + label);
+        }
+        return patty;
+    }
+    static Patty fromCode(int code){
+        return VALUES[code];
+    }
+}
+
+// NONE is code 0, so an order without a side just has a 0 byte there.
+enum Side {
+    NONE(null), FRIES("fries"), WEDGES("wedges"), SALAD("salad");
+
+    final String label;
+    private static final Map<String, Side> BY_LABEL = new HashMap<>();
+    static {
+        for(Side side : values()){
+            if(side.label != null){
+                BY_LABEL.put(side.label, side);
+            }
+        }
+    }
+    private static final Side[] VALUES = values();
+
+    Side(String label){
+        this.label = label;
+    }
+    static Side of(String label){
+        if(label == null){
+            return NONE;
+        }
+        Side side = BY_LABEL.get(label);
+        if(side == null){
+            throw new IllegalArgumentException("Unknown side: " + label);
+        }
+        return side;
+    }
+    static Side fromCode(int code){
+        return VALUES[code];
+    }
+}
+
+enum Drink {
+    NONE(null), COKE("coke"), LEMONADE("lemonade"), ICED_TEA("iced-tea");
+
+    final String label;
+    private static final Map<String, Drink> BY_LABEL = new HashMap<>();
+    static {
+        for(Drink drink : values()){
+            if(drink.label != null){
+                BY_LABEL.put(drink.label, drink);
+            }
+        }
+    }
+    private static final Drink[] VALUES = values();
+
+    Drink(String label){
+        this.label = label;
+    }
+    static Drink of(String label){
+        if(label == null){
+            return NONE;
+        }
+        Drink drink = BY_LABEL.get(label);
+        if(drink == null){
+            throw new IllegalArgumentException("Unknown drink: " + label);
+        }
+        return drink;
+    }
+    static Drink fromCode(int code){
+        return VALUES[code];
+    }
+}
+
+// at most 16 toppings, they have to fit the 2 byte bitset.
+enum Topping {
+    LETTUCE("lettuce"), ONION("onion"), TOMATO("tomato"), JALAPENO("jalapeno"), PICKLE("pickle"), OLIVES("olives"), MUSHROOM("mushroom");
+
+    final String label;
+    private static final Map<String, Topping> BY_LABEL = new HashMap<>();
+    static {
+        for(Topping topping : values()){
+            BY_LABEL.put(topping.label, topping);
+        }
+    }
+    private static final Topping[] VALUES = values();
+
+    Topping(String label){
+        this.label = label;
+    }
+    static Topping of(String label){
+        Topping topping = BY_LABEL.get(label);
+        if(topping == null){
+            throw new IllegalArgumentException("Unknown topping: " + label);
+        }
+        return topping;
+    }
+    static Topping fromCode(int code){
+        return VALUES[code];
+    }
+    static int count(){
+        return VALUES.length;
+    }
+}
+
+final class BurgerMealCodec {
+    static final int RECORD_SIZE = 8;
+    private static final int CHEESE = 1;
+
+    private BurgerMealCodec(){
+
+    }
+
+    // writes at the buffer's position and moves it by RECORD_SIZE.
+    static void write(BurgerMeal meal, ByteBuffer out){
+        int toppings = 0;
+        List<String> list = meal.getToppings();
+        for(int i = 0; i < list.size(); i++){
+            toppings |= 1 << Topping.of(list.get(i)).ordinal();
+        }
+        out.put((byte) Bun.of(meal.getBunType()).ordinal());
+        out.put((byte) Patty.of(meal.getPatty()).ordinal());
+        out.put((byte) Side.of(meal.getSide()).ordinal());
+        out.put((byte) Drink.of(meal.getDrink()).ordinal());
+        out.put((byte) (meal.hasCheese() ? CHEESE : 0));
+        out.put((byte) 0);
+        out.putShort((short) toppings);
+    }
+
+    // reads at the buffer's position, builds with this thread's builder, so only the meal is allocated.
+    static BurgerMeal read(ByteBuffer in){
+        Bun bun = Bun.fromCode(in.get());
+        Patty patty = Patty.fromCode(in.get());
+        Side side = Side.fromCode(in.get());
+        Drink drink = Drink.fromCode(in.get());
+        int flags = in.get();
+        in.get();
+        int toppings = in.getShort() & 0xFFFF;
+        BurgerMeal.BurgerBuilder builder = BurgerMeal.builderForThread(bun.label, patty.label)
+                .withCheese((flags & CHEESE) != 0)
+                .withSide(side.label)
+                .withDrink(drink.label);
+        for(int code = 0; toppings != 0; code++, toppings >>>= 1){
+            if((toppings & 1) != 0){
+                builder.withTopping(Topping.fromCode(code).label);
+            }
+        }
+        return builder.build();
+    }
+}
+
+// [5] a day of orders in one file: 16 byte header, then 8 byte records back to back.
+//   header: magic "BRGR" (int), version (short), record size (short), 8 bytes unused.
+// no count in the header, so the writer can just keep appending. a half written last record
+// (crash while writing) is ignored on replay.
+final class OrderLog {
+    static final int MAGIC = 0x42524752; // "BRGR"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    private static final int CHUNK = 64 * 1024; // bytes per read/write call.
+
+    private OrderLog(){
+
+    }
+
+    static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) BurgerMealCodec.RECORD_SIZE).putLong(0);
+        }
+
+        void append(BurgerMeal meal) throws IOException {
+            if(buffer.remaining() < BurgerMealCodec.RECORD_SIZE){
+                flush();
+            }
+            BurgerMealCodec.write(meal, buffer);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    // calls onMeal for every order in the file, in file order. returns how many there were.
+    static long replay(Path file, Consumer<BurgerMeal> onMeal) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        long count = 0;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            while(buffer.position() < HEADER_SIZE && channel.read(buffer) >= 0){
+                // header may come in more than one read.
+            }
+            buffer.flip();
+            if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC){
+                throw new IOException("Not an order log: " + file);
+            }
+            short version = buffer.getShort();
+            short recordSize = buffer.getShort();
+            if(version != VERSION || recordSize != BurgerMealCodec.RECORD_SIZE){
+                throw new IOException("Unsupported order log version " + version + " / record size " + recordSize);
+            }
+            buffer.getLong();
+            while(true){
+                while(buffer.remaining() >= BurgerMealCodec.RECORD_SIZE){
+                    onMeal.accept(BurgerMealCodec.read(buffer));
+                    count++;
+                }
+                buffer.compact(); // keeps a partial record for the next read.
+                if(channel.read(buffer) < 0){
+                    return count;
+                }
+                buffer.flip();
+            }
+        }
+    }
+}
+
+// [6] replaying the daily text order log in parallel.
+// one line per order: bun,patty,cheese(0/1),toppings joined by '|',side,drink   (empty = none)
+//   wheat,veg,1,lettuce|onion,fries,coke
+// reading it line by line with readLine() + split(",") on one thread makes a String per line,
+// an array + a String per field, and uses one core.
+// instead:
+//  - memory map the file, the OS pages it in, no copying into our own buffers.
+//  - cut it into pieces at byte offsets, a piece owns every line that *starts* inside it,
+//    so nobody has to find the line boundaries up front. a piece just skips the partial line it starts in.
+//  - parse the bytes directly, fields are matched against the menu labels byte by byte,
+//    the meal gets the enum's label string, so no String is created per field.
+//  - every task builds meals with its thread's builder into its own buffer, the sink gets full buffers.
+final class ParallelOrderIngest {
+    private static final long MAX_PIECE = 256L * 1024 * 1024; // a MappedByteBuffer can't be bigger than 2GB, keep pieces well under.
+    private static final int MAX_LINE = 4096; // lines longer than this are rejected.
+
+    // one menu vocabulary as bytes, matched without decoding to a String.
+    private static final class Vocabulary {
+        private final byte[][] labels;
+        private final String[] values;
+
+        Vocabulary(String... labels){
+            this.labels = new byte[labels.length][];
+            this.values = labels;
+            for(int i = 0; i < labels.length; i++){
+                this.labels[i] = labels[i].getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        // the label for bytes [from, to), or null if it is not on the menu.
+        String match(MappedByteBuffer in, int from, int to){
+            int length = to - from;
+            for(int i = 0; i < labels.length; i++){
+                byte[] label = labels[i];
+                if(label.length != length){
+                    continue;
+                }
+                int j = 0;
+                while(j < length && in.get(from + j) == label[j]){
+                    j++;
+                }
+                if(j == length){
+                    return values[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Vocabulary BUNS = vocabulary(Bun.values().length, i -> Bun.fromCode(i).label);
+    private static final Vocabulary PATTIES = vocabulary(Patty.values().length, i -> Patty.fromCode(i).label);
+    private static final Vocabulary SIDES = vocabulary(Side.values().length - 1, i -> Side.fromCode(i + 1).label); // NONE = empty field.
+    private static final Vocabulary DRINKS = vocabulary(Drink.values().length - 1, i -> Drink.fromCode(i + 1).label);
+    private static final Vocabulary TOPPINGS = vocabulary(Topping.count(), i -> Topping.fromCode(i).label);
+
+    private static Vocabulary vocabulary(int size, java.util.function.IntFunction<String> label){
+        String[] labels = new String[size];
+        for(int i = 0; i < size; i++){
+            labels[i] = label.apply(i);
+        }
+        return new Vocabulary(labels);
+    }
+
+    static final class Result {
+        final long records;
+        final long rejected;
+        final long bytes;
+        final long nanos;
+
+        Result(long records, long rejected, long bytes, long nanos){
+            this.records = records;
+            this.rejected = rejected;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString(){
+            double seconds = nanos / 1_000_000_000.0;
+            return String.format("%d orders (%d rejected), %.1f MB in %.2fs -> %.1f MB/s, %.2f M orders/s",
+                    records, rejected, bytes / (1024.0 * 1024), seconds,
+                    bytes / (1024.0 * 1024) / seconds, records / seconds / 1_000_000);
+        }
+    }
+
+    // sink is called from several threads at once with a full buffer of meals, it must be thread safe.
+    // the list is reused for the next meals once sink returns, copy it if you keep it.
+    static Result ingest(Path file, int threads, int bufferSize, Consumer<List<BurgerMeal>> sink) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        LongAdder records = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            // a few pieces per thread so one slow piece doesnt leave the other cores idle at the end.
+            int pieces = (int) Math.max(threads * 4L, (size + MAX_PIECE - 1) / MAX_PIECE);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try{
+                List<Future<?>> tasks = new ArrayList<>();
+                for(int i = 0; i < pieces; i++){
+                    long from = size * i / pieces;
+                    long to = size * (i + 1) / pieces;
+                    tasks.add(pool.submit(() -> {
+                        parsePiece(channel, size, from, to, bufferSize, sink, records, rejected);
+                        return null;
+                    }));
+                }
+                for(Future<?> task : tasks){
+                    try{
+                        task.get();
+                    } catch(java.util.concurrent.ExecutionException e){
+                        throw new IOException("Ingestion failed", e.getCause());
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            return new Result(records.sum(), rejected.sum(), size, System.nanoTime() - start);
+        }
+    }
+
+    // parses every line that starts in [from, to). the mapping goes a bit past `to` for the last line.
+    private static void parsePiece(FileChannel channel, long size, long from, long to, int bufferSize,
+                                   Consumer<List<BurgerMeal>> sink, LongAdder records, LongAdder rejected) throws IOException {
+        long mapFrom = Math.max(0, from - 1); // one byte back to see if `from` is the start of a line.
+        long mapTo = Math.min(size, to + MAX_LINE);
+        if(mapFrom >= mapTo){
+            return;
+        }
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, mapFrom, mapTo - mapFrom);
+        int end = (int) (to - mapFrom); // lines must start before this.
+        int limit = in.limit();
+        int pos = 0;
+        if(from > 0){
+            while(pos < limit && in.get(pos) != '\n'){
+                pos++; // rest of a line the previous piece owns.
+            }
+            pos++;
+        }
+
+        List<BurgerMeal> buffer = new ArrayList<>(bufferSize);
+        long ok = 0;
+        long bad = 0;
+        while(pos < end && pos < limit){
+            int lineEnd = pos;
+            while(lineEnd < limit && in.get(lineEnd) != '\n'){
+                lineEnd++;
+            }
+            if(lineEnd == limit && mapTo < size){
+                bad++; // longer than MAX_LINE, we cant see its end.
+                break;
+            }
+            BurgerMeal meal = parseLine(in, pos, lineEnd);
+            if(meal != null){
+                buffer.add(meal);
+                ok++;
+                if(buffer.size() == bufferSize){
+                    sink.accept(buffer);
+                    buffer.clear();
+                }
+            }
+            else if(lineEnd > pos){
+                bad++; // empty lines are just skipped.
+            }
+            pos = lineEnd + 1;
+        }
+        if(!buffer.isEmpty()){
+            sink.accept(buffer);
+        }
+        records.add(ok);
+        rejected.add(bad);
+    }
+
+    // null if the line is malformed or uses something not on the menu.
+    private static BurgerMeal parseLine(MappedByteBuffer in, int from, int to){
+        if(to > from && in.get(to - 1) == '\r'){
+            to--;
+        }
+        int[] fieldEnds = FIELD_ENDS.get();
+        int fields = 0;
+        for(int i = from; i < to && fields < 6; i++){
+            if(in.get(i) == ','){
+                fieldEnds[fields++] = i;
+            }
+        }
+        if(fields != 5){
+            return null;
+        }
+        fieldEnds[5] = to;
+
+        String bun = BUNS.match(in, from, fieldEnds[0]);
+        String patty = PATTIES.match(in, fieldEnds[0] + 1, fieldEnds[1]);
+        int cheeseAt = fieldEnds[1] + 1;
+        if(bun == null || patty == null || fieldEnds[2] != cheeseAt + 1){
+            return null;
+        }
+        byte cheese = in.get(cheeseAt);
+        if(cheese != '0' && cheese != '1'){
+            return null;
+        }
+        String side = null;
+        if(fieldEnds[4] > fieldEnds[3] + 1 && (side = SIDES.match(in, fieldEnds[3] + 1, fieldEnds[4])) == null){
+            return null;
+        }
+        String drink = null;
+        if(fieldEnds[5] > fieldEnds[4] + 1 && (drink = DRINKS.match(in, fieldEnds[4] + 1, fieldEnds[5])) == null){
+            return null;
+        }
+
+        BurgerMeal.BurgerBuilder builder = BurgerMeal.builderForThread(bun, patty)
+                .withCheese(cheese == '1').withSide(side).withDrink(drink);
+        int toppingFrom = fieldEnds[2] + 1;
+        int toppingsEnd = fieldEnds[3];
+        while(toppingFrom < toppingsEnd){
+            int toppingTo = toppingFrom;
+            while(toppingTo < toppingsEnd && in.get(toppingTo) != '|'){
+                toppingTo++;
+            }
+            String topping = TOPPINGS.match(in, toppingFrom, toppingTo);
+            if(topping == null){
+                return null;
+            }
+            builder.withTopping(topping);
+            toppingFrom = toppingTo + 1;
+        }
+        return builder.build();
+    }
+
+    private static final ThreadLocal<int[]> FIELD_ENDS = ThreadLocal.withInitial(() -> new int[6]);
+}
+
+// [6] makes a text order log of about `megabytes` MB and times the parallel ingestion on it.
+//   javac Main.java && java ParallelIngestBenchmark [megabytes] [threads] [file]
+// pass a size like 4096 for a multi GB run, the file is generated once and reused if it exists.
+class ParallelIngestBenchmark {
+    public static void main(String[] args) throws Exception {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 256;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path file = args.length > 2 ? Path.of(args[2]) : Path.of(System.getProperty("java.io.tmpdir"), "orders-" + megabytes + "mb.csv");
+        if(!Files.exists(file) || Files.size(file) < megabytes * 1024 * 1024){
+            generate(file, megabytes * 1024 * 1024);
+        }
+
+        LongAdder withCheese = new LongAdder();
+        Consumer<List<BurgerMeal>> sink = meals -> {
+            long cheese = 0;
+            for(int i = 0; i < meals.size(); i++){
+                if(meals.get(i).hasCheese()){
+                    cheese++;
+                }
+            }
+            withCheese.add(cheese);
+        };
+        for(int round = 0; round < 3; round++){ // round 0 also warms up the page cache and the JIT.
+            System.out.println("1 thread:  " + ParallelOrderIngest.ingest(file, 1, 4096, sink));
+            if(threads > 1){
+                System.out.println(threads + " threads: " + ParallelOrderIngest.ingest(file, threads, 4096, sink));
+            }
+        }
+    }
+
+    static void generate(Path file, long bytes) throws IOException {
+        String[] toppings = {"", "lettuce", "lettuce|onion", "lettuce|tomato|jalapeno", "onion|pickle", "olives|mushroom|onion"};
+        String[] sides = {"", "fries", "wedges", "salad"};
+        String[] drinks = {"", "coke", "lemonade", "iced-tea"};
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long written = 0;
+        try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)){
+            StringBuilder line = new StringBuilder(64);
+            while(written < bytes){
+                line.setLength(0);
+                line.append(Bun.fromCode(random.nextInt(Bun.values().length)).label).append(',')
+                    .append(Patty.fromCode(random.nextInt(Patty.values().length)).label).append(',')
+                    .append(random.nextInt(2)).append(',')
+                    .append(toppings[random.nextInt(toppings.length)]).append(',')
+                    .append(sides[random.nextInt(sides.length)]).append(',')
+                    .append(drinks[random.nextInt(drinks.length)]).append('\n');
+                out.append(line);
+                written += line.length();
+            }
+        }
+    }
+}
+
 public class Main {
     public static void main(String[] args) {
         /*[1] without builder pattern
@@ -175,6 +971,59 @@ public class Main {
         // Inflexible, as users must use parameters in a specific order
         */
 
+        // [4] reusable builder, one per thread, and shared toppings lists.
+        BurgerMeal first = BurgerMeal.builderForThread("wheat", "veg").withTopping("lettuce").withTopping("onion").withDrink("coke").build();
+        BurgerMeal second = BurgerMeal.builderForThread("brioche", "chicken").withCheese(true).withTopping("lettuce").withTopping("onion").build();
+        System.out.println(first);
+        System.out.println(second);
+        System.out.println("same toppings list: " + (first.getToppings() == second.getToppings()));
+
+        // [5] 8 bytes per order, written to a file and replayed.
+        ByteBuffer record = ByteBuffer.allocate(BurgerMealCodec.RECORD_SIZE);
+        BurgerMealCodec.write(second, record);
+        record.flip();
+        System.out.println("decoded: " + BurgerMealCodec.read(record));
+        try{
+            Path log = Files.createTempFile("orders", ".log");
+            int orders = 1_000_000;
+            String[] buns = {"wheat", "multigrain", "brioche"};
+            String[] patties = {"veg", "chicken", "paneer", "aloo-tikki"};
+            try(OrderLog.Writer writer = new OrderLog.Writer(log)){
+                for(int i = 0; i < orders; i++){
+                    writer.append(BurgerMeal.builderForThread(buns[i % 3], patties[i % 4]).withCheese(i % 5 == 0)
+                            .withTopping("lettuce").withTopping(i % 2 == 0 ? "onion" : "tomato").withSide("fries").build());
+                }
+            }
+            long start = System.nanoTime();
+            int[] cheese = new int[1];
+            long replayed = OrderLog.replay(log, meal -> {
+                if(meal.hasCheese()){
+                    cheese[0]++;
+                }
+            });
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("replayed " + replayed + " orders (" + Files.size(log) / 1024 + " KB, "
+                    + cheese[0] + " with cheese) in " + millis + "ms");
+            Files.delete(log);
+        } catch(IOException e){
+            System.out.println("order log demo failed: " + e.getMessage());
+        }
+
+        // [6] parallel ingestion of a small text order log.
+        try{
+            Path textLog = Files.createTempFile("orders", ".csv");
+            ParallelIngestBenchmark.generate(textLog, 4 * 1024 * 1024);
+            LongAdder meals = new LongAdder();
+            ParallelOrderIngest.Result result = ParallelOrderIngest.ingest(textLog, Runtime.getRuntime().availableProcessors(), 4096,
+                    batch -> meals.add(batch.size()));
+            System.out.println("ingested " + meals.sum() + " meals: " + result);
+            Files.delete(textLog);
+        } catch(IOException e){
+            System.out.println("ingest demo failed: " + e.getMessage());
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
         //when to use
         // Use the Builder pattern when:
         // an object has multiple fields
@@ -1,4 +1,7 @@
 // package Creational.Factory;
+// needs JDK 21: the [5] quote engine asks the partners from virtual threads.
+import java.util.*;
+import java.util.concurrent.*;
 
 /* [1]
 interface Logistics{
@@ -80,6 +83,549 @@ class LogisticsService{
 }
 */
 
+// [3] registry based factory.
+// the factory in [2] is an if/else chain: every call compares the mode against each branch in turn
+// (so the 50th mode costs 50 string compares) and then does new Road()/new Air(),
+// even though Road and Air have no state, one object each is enough for the whole app.
+// also adding Train means editing the factory again.
+// instead the factory keeps a map mode -> instance:
+//  - lookup is one hash lookup, no matter how many modes exist.
+//  - the instances are created once and shared, they must be stateless (or thread safe).
+//  - a new mode calls LogisticsFactory.register(...) from its own code, the factory is not touched.
+interface Logistics{
+    void send();
+
+    // [4] batch dispatch passes the shipment. modes that dont care about it keep only send().
+    default void send(Shipment shipment){
+        send();
+    }
+}
+
+class Road implements Logistics{
+    @Override
+    public void send(){
+        System.out.println("Sending by road logic");
+    }
+}
+class Air implements Logistics{
+    @Override
+    public void send(){
+        System.out.println("Sending by air logic");
+    }
+}
+
+class LogisticsFactory {
+    // concurrent map, modes may be registered while other threads are already looking them up.
+    private static final Map<String, Logistics> registry = new ConcurrentHashMap<>();
+    // [5] mode -> where its prices come from (a partner's pricing API). registered by whoever wires the app.
+    private static final Map<String, Quotable> pricing = new ConcurrentHashMap<>();
+    static {
+        register("Road", new Road());
+        register("Air", new Air());
+    }
+
+    public static void register(String mode, Logistics logistics){
+        if(registry.putIfAbsent(mode, logistics) != null){
+            throw new IllegalStateException("Logistics mode already registered: " + mode);
+        }
+    }
+
+    public static Logistics getLogistics(String mode){
+        if(mode == null){
+            throw new IllegalArgumentException("Logistics mode is missing"); // ConcurrentHashMap.get(null) would throw an NPE.
+        }
+        Logistics logistics = registry.get(mode); // equals(), not ==, so modes read from a request work too.
+        if(logistics == null){
+            throw new IllegalArgumentException("Unknown logistics mode: " + mode);
+        }
+        return logistics;
+    }
+
+    public static Set<String> modes(){
+        return Collections.unmodifiableSet(registry.keySet());
+    }
+
+    public static void registerPricing(String mode, Quotable quotable){
+        if(pricing.putIfAbsent(mode, quotable) != null){
+            throw new IllegalStateException("Pricing already registered for mode: " + mode);
+        }
+    }
+
+    public static Map<String, Quotable> pricing(){
+        return Collections.unmodifiableMap(pricing);
+    }
+}
+
+class LogisticsService{
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    public void send(String mode){// mode can be road, train etc.
+        Logistics logistics = LogisticsFactory.getLogistics(mode);
+        logistics.send();
+    }
+
+    // [4] shift end: tens of thousands of shipments at once.
+    // shipments are grouped by mode, every mode gets its own pool with its own limit
+    // (the air cargo API may take 50 parallel calls, the road partner only 5), and all modes run at the same time.
+    // one failing shipment doesnt stop the batch, every shipment gets an outcome, in the same order as the input.
+    public BatchDispatchResult sendAll(List<Shipment> shipments, Map<String, Integer> concurrencyPerMode) throws InterruptedException {
+        for(Map.Entry<String, Integer> limit : concurrencyPerMode.entrySet()){
+            if(limit.getValue() == null || limit.getValue() <= 0){
+                throw new IllegalArgumentException("Concurrency for " + limit.getKey() + " must be positive: " + limit.getValue());
+            }
+        }
+        long batchStart = System.nanoTime();
+        ShipmentOutcome[] outcomes = new ShipmentOutcome[shipments.size()];
+        Map<String, List<Integer>> byMode = new LinkedHashMap<>();
+        for(int i = 0; i < shipments.size(); i++){
+            byMode.computeIfAbsent(shipments.get(i).mode, mode -> new ArrayList<>()).add(i);
+        }
+
+        List<ExecutorService> pools = new ArrayList<>();
+        try{
+            for(Map.Entry<String, List<Integer>> group : byMode.entrySet()){
+                String mode = group.getKey();
+                Logistics logistics;
+                try{
+                    logistics = LogisticsFactory.getLogistics(mode);
+                } catch(IllegalArgumentException e){
+                    for(int index : group.getValue()){
+                        outcomes[index] = ShipmentOutcome.failed(shipments.get(index), e.getMessage(), 0, 0);
+                    }
+                    continue;
+                }
+                int concurrency = Math.min(group.getValue().size(), concurrencyPerMode.getOrDefault(mode, DEFAULT_CONCURRENCY));
+                ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+                pools.add(pool);
+                for(int index : group.getValue()){
+                    Shipment shipment = shipments.get(index);
+                    pool.execute(() -> {
+                        long start = System.nanoTime();
+                        try{
+                            logistics.send(shipment);
+                            outcomes[index] = ShipmentOutcome.sent(shipment, start - batchStart, System.nanoTime() - start);
+                        } catch(Throwable e){ // even an Error gets an outcome, the slot must not stay empty.
+                            outcomes[index] = ShipmentOutcome.failed(shipment, e.getMessage() != null ? e.getMessage() : e.toString(),
+                                    start - batchStart, System.nanoTime() - start);
+                        }
+                    });
+                }
+            }
+            for(ExecutorService pool : pools){
+                pool.shutdown();
+            }
+            for(ExecutorService pool : pools){
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            for(ExecutorService pool : pools){
+                pool.shutdownNow(); // only does something if we were interrupted while waiting.
+            }
+        }
+        // awaitTermination happens-before here, so every outcome written by a pool thread is visible.
+        return new BatchDispatchResult(Arrays.asList(outcomes), System.nanoTime() - batchStart);
+    }
+}
+
+final class Shipment {
+    final String id;
+    final String mode;
+
+    Shipment(String id, String mode){
+        this.id = id;
+        this.mode = mode;
+    }
+}
+
+final class ShipmentOutcome {
+    final Shipment shipment;
+    final boolean success;
+    final String error; // null when sent.
+    final long startOffsetNanos; // when it started, relative to the start of the batch.
+    final long durationNanos;
+
+    private ShipmentOutcome(Shipment shipment, boolean success, String error, long startOffsetNanos, long durationNanos){
+        this.shipment = shipment;
+        this.success = success;
+        this.error = error;
+        this.startOffsetNanos = startOffsetNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    static ShipmentOutcome sent(Shipment shipment, long startOffsetNanos, long durationNanos){
+        return new ShipmentOutcome(shipment, true, null, startOffsetNanos, durationNanos);
+    }
+
+    static ShipmentOutcome failed(Shipment shipment, String error, long startOffsetNanos, long durationNanos){
+        return new ShipmentOutcome(shipment, false, error, startOffsetNanos, durationNanos);
+    }
+}
+
+final class BatchDispatchResult {
+    final List<ShipmentOutcome> outcomes; // same order as the shipments passed in.
+    final long elapsedNanos;
+
+    BatchDispatchResult(List<ShipmentOutcome> outcomes, long elapsedNanos){
+        this.outcomes = Collections.unmodifiableList(outcomes);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long failures(){
+        return outcomes.stream().filter(o -> !o.success).count();
+    }
+
+    // per mode: how many, how many failed, and when the last one of that mode finished.
+    @Override
+    public String toString(){
+        Map<String, long[]> byMode = new TreeMap<>(); // {count, failed, finishedAt}
+        for(ShipmentOutcome outcome : outcomes){
+            long[] stats = byMode.computeIfAbsent(outcome.shipment.mode, mode -> new long[3]);
+            stats[0]++;
+            if(!outcome.success){
+                stats[1]++;
+            }
+            stats[2] = Math.max(stats[2], outcome.startOffsetNanos + outcome.durationNanos);
+        }
+        StringBuilder out = new StringBuilder();
+        out.append(outcomes.size()).append(" shipments, ").append(failures()).append(" failed, in ")
+           .append(elapsedNanos / 1_000_000).append("ms");
+        byMode.forEach((mode, stats) -> out.append("\n  ").append(mode).append(": ").append(stats[0])
+                .append(" shipments, ").append(stats[1]).append(" failed, done after ").append(stats[2] / 1_000_000).append("ms"));
+        return out.toString();
+    }
+}
+
+// a mode added later, outside the factory.
+class Train implements Logistics{
+    @Override
+    public void send(){
+        System.out.println("Sending by train logic");
+    }
+}
+
+// [4] stand in for a partner API: takes `latencyMillis` per shipment and rejects some.
+class PartnerLogistics implements Logistics{
+    private final String partner;
+    private final long latencyMillis;
+    private final double failureRate;
+
+    PartnerLogistics(String partner, long latencyMillis, double failureRate){
+        this.partner = partner;
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void send(){
+        System.out.println("Sending by " + partner);
+    }
+
+    @Override
+    public void send(Shipment shipment){
+        try{
+            Thread.sleep(latencyMillis);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while booking " + shipment.id, e);
+        }
+        if(ThreadLocalRandom.current().nextDouble() < failureRate){
+            throw new IllegalStateException(partner + " rejected shipment " + shipment.id);
+        }
+    }
+}
+
+// [5] which mode is cheapest (or fastest) for this shipment?
+// today the caller picks Road or Air by hand. the quote engine asks every mode that has a pricing source
+// registered (LogisticsFactory.registerPricing), all at the same time, waits at most `deadline`,
+// and picks the best answer it got.
+// a mode that is too slow is simply left out of this answer.
+// quotes for the same origin/destination/weight are cached for a while, pricing doesnt change per second,
+// and requests for a route that is already being quoted wait for that answer instead of asking again.
+// the cache holds at most `maxCachedRoutes` routes, expired ones are dropped when read or when it is full.
+interface Quotable {
+    Quote quote(String origin, String destination, double weightKg);
+}
+
+// one shipment to quote: where from, where to, how heavy.
+final class QuoteRequest {
+    final String id;
+    final String origin;
+    final String destination;
+    final double weightKg;
+
+    QuoteRequest(String id, String origin, String destination, double weightKg){
+        this.id = id;
+        this.origin = origin;
+        this.destination = destination;
+        this.weightKg = weightKg;
+    }
+}
+
+final class Quote {
+    final String mode;
+    final double cost;
+    final double transitHours;
+
+    Quote(String mode, double cost, double transitHours){
+        this.mode = mode;
+        this.cost = cost;
+        this.transitHours = transitHours;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%s: %.2f in %.1fh", mode, cost, transitHours);
+    }
+}
+
+// local stand in for a partner's pricing API. the distance is made up from the city names
+// (same pair -> same distance), `latencyMillis` is how long the "remote call" takes.
+class LocalCostModel implements Quotable {
+    private final String mode;
+    private final double baseFare;
+    private final double perKgKm;
+    private final double speedKmh;
+    private final double handlingHours;
+    private final long latencyMillis;
+
+    LocalCostModel(String mode, double baseFare, double perKgKm, double speedKmh, double handlingHours, long latencyMillis){
+        this.mode = mode;
+        this.baseFare = baseFare;
+        this.perKgKm = perKgKm;
+        this.speedKmh = speedKmh;
+        this.handlingHours = handlingHours;
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public Quote quote(String origin, String destination, double weightKg){
+        try{
+            Thread.sleep(latencyMillis);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Quote interrupted", e);
+        }
+        double km = distanceKm(origin, destination);
+        return new Quote(mode, baseFare + perKgKm * weightKg * km, handlingHours + km / speedKmh);
+    }
+
+    static double distanceKm(String origin, String destination){
+        int h = origin.compareTo(destination) < 0 ? (origin + destination).hashCode() : (destination + origin).hashCode();
+        return 200 + Math.floorMod(h, 2800);
+    }
+}
+
+enum QuoteObjective {
+    CHEAPEST(Comparator.comparingDouble(q -> q.cost)),
+    FASTEST(Comparator.comparingDouble(q -> q.transitHours));
+
+    final Comparator<Quote> order;
+
+    QuoteObjective(Comparator<Quote> order){
+        this.order = order;
+    }
+}
+
+class QuoteEngine implements AutoCloseable {
+    private final long deadlineMillis;
+    private final long cacheTtlMillis;
+    private final int maxCachedRoutes;
+    // quotes are remote calls that mostly wait, one virtual thread per call is enough.
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ConcurrentHashMap<String, CachedQuotes> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<List<Quote>>> inFlight = new ConcurrentHashMap<>();
+
+    private static final class CachedQuotes {
+        final List<Quote> quotes;
+        final long expiresAtMillis;
+
+        CachedQuotes(List<Quote> quotes, long expiresAtMillis){
+            this.quotes = quotes;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    QuoteEngine(long deadlineMillis, long cacheTtlMillis, int maxCachedRoutes){
+        this.deadlineMillis = deadlineMillis;
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.maxCachedRoutes = maxCachedRoutes;
+    }
+
+    // empty if no mode answered in time.
+    public Optional<Quote> best(String origin, String destination, double weightKg, QuoteObjective objective){
+        return quotes(origin, destination, weightKg).stream().min(objective.order);
+    }
+
+    // many shipments at once, each one quoted in parallel as well. result i belongs to request i.
+    public List<Optional<Quote>> bestForAll(List<QuoteRequest> requests, QuoteObjective objective){
+        List<CompletableFuture<Optional<Quote>>> futures = new ArrayList<>();
+        for(QuoteRequest request : requests){
+            futures.add(CompletableFuture.supplyAsync(() -> best(request.origin, request.destination, request.weightKg, objective), executor));
+        }
+        List<Optional<Quote>> results = new ArrayList<>();
+        for(CompletableFuture<Optional<Quote>> future : futures){
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    List<Quote> quotes(String origin, String destination, double weightKg){
+        String key = origin + '|' + destination + '|' + weightKg;
+        CachedQuotes cached = cache.get(key);
+        if(cached != null){
+            if(cached.expiresAtMillis > System.currentTimeMillis()){
+                return cached.quotes;
+            }
+            cache.remove(key, cached); // stale, ask again.
+        }
+        // 500 shipments on the same route at the same time -> one round of quote calls, everyone waits for it.
+        CompletableFuture<List<Quote>> call = inFlight.computeIfAbsent(key, k -> askAllModes(origin, destination, weightKg));
+        try{
+            return call.join();
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    private CompletableFuture<List<Quote>> askAllModes(String origin, String destination, double weightKg){
+        String key = origin + '|' + destination + '|' + weightKg;
+        List<CompletableFuture<Quote>> calls = new ArrayList<>();
+        for(Quotable quotable : LogisticsFactory.pricing().values()){
+            calls.add(CompletableFuture.supplyAsync(() -> quotable.quote(origin, destination, weightKg), executor)
+                    .completeOnTimeout(null, deadlineMillis, TimeUnit.MILLISECONDS) // too slow -> no quote.
+                    .exceptionally(e -> null));                                   // failed -> no quote.
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> { // at most ~deadline.
+            List<Quote> quotes = new ArrayList<>();
+            for(CompletableFuture<Quote> call : calls){
+                Quote quote = call.join();
+                if(quote != null){
+                    quotes.add(quote);
+                }
+            }
+            // only a complete answer is cached, otherwise a mode that was slow once would be missing until the entry expires.
+            if(quotes.size() == calls.size()){
+                cacheIfRoom(key, new CachedQuotes(List.copyOf(quotes), System.currentTimeMillis() + cacheTtlMillis));
+            }
+            return List.copyOf(quotes);
+        });
+    }
+
+    // full -> drop the expired routes first. still full -> this route is simply not cached.
+    private void cacheIfRoom(String key, CachedQuotes quotes){
+        if(cache.size() >= maxCachedRoutes){
+            long now = System.currentTimeMillis();
+            cache.values().removeIf(cached -> cached.expiresAtMillis <= now);
+            if(cache.size() >= maxCachedRoutes){
+                return;
+            }
+        }
+        cache.put(key, quotes);
+    }
+
+    @Override
+    public void close(){
+        executor.shutdownNow();
+    }
+}
+
+// [5] batch quoting: 1000 shipments over 40 city pairs, cold cache vs warm cache.
+//   javac Main.java && java QuoteBenchmark [shipments]
+class QuoteBenchmark {
+    public static void main(String[] args){
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        String[] cities = {"Delhi", "Mumbai", "Pune", "Jaipur", "Chennai", "Kolkata", "Indore", "Surat"};
+        LogisticsFactory.registerPricing("Road", new LocalCostModel("Road", 40, 0.0004, 55, 12, 2));
+        LogisticsFactory.registerPricing("Air", new LocalCostModel("Air", 150, 0.0015, 700, 6, 5));
+        List<QuoteRequest> warmup = new ArrayList<>();
+        List<QuoteRequest> requests = new ArrayList<>();
+        Random random = new Random(7);
+        for(int i = 0; i < count; i++){
+            int from = random.nextInt(cities.length);
+            int to = (from + 1 + random.nextInt(5)) % cities.length; // 8 x 5 = 40 pairs.
+            warmup.add(new QuoteRequest("SHP-" + i, cities[from], cities[to], 10)); // other weight, so the cache stays cold for 25kg.
+            requests.add(new QuoteRequest("SHP-" + i, cities[from], cities[to], 25));
+        }
+        // the deadline runs from when a route is first asked, on a machine with few cores the quote calls
+        // queue up behind the 1000 shipment tasks, so dont make it too tight here.
+        try(QuoteEngine engine = new QuoteEngine(50, 60_000, 10_000)){
+            engine.bestForAll(warmup, QuoteObjective.CHEAPEST); // JIT warmup.
+            for(String pass : new String[]{"cold", "warm"}){
+                long start = System.nanoTime();
+                List<Optional<Quote>> best = engine.bestForAll(requests, QuoteObjective.CHEAPEST);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                long quoted = best.stream().filter(Optional::isPresent).count();
+                System.out.printf("%s cache: %d shipments quoted (%d with a quote) in %dms -> %.0f quotes/s%n",
+                        pass, best.size(), quoted, millis, best.size() * 1000.0 / Math.max(1, millis));
+            }
+        }
+    }
+}
+
+// [3] if/else chain + new instance per call vs LogisticsFactory.getLogistics, with 2, 10 and 50 modes.
+//   javac Main.java && java FactoryBenchmark [lookups]
+class FactoryBenchmark {
+    private static volatile int sink;
+
+    // stateless stand in for the generated modes.
+    private static final class NumberedLogistics implements Logistics {
+        final int id;
+        NumberedLogistics(int id){
+            this.id = id;
+        }
+        @Override
+        public void send(){
+        }
+    }
+
+    public static void main(String[] args){
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        for(int modes : new int[]{2, 10, 50}){
+            String[] names = new String[modes];
+            for(int i = 0; i < modes; i++){
+                names[i] = "Mode" + i;
+                if(!LogisticsFactory.modes().contains(names[i])){ // the smaller runs registered the first ones already.
+                    LogisticsFactory.register(names[i], new NumberedLogistics(i));
+                }
+            }
+            // keys as they would come from a request: equal to the mode names, but different String objects.
+            String[] keys = new String[4096];
+            Random random = new Random(42);
+            for(int i = 0; i < keys.length; i++){
+                keys[i] = new String(names[random.nextInt(modes)]);
+            }
+
+            double chainNs = 0;
+            double registryNs = 0;
+            for(int round = 0; round < 5; round++){ // last round wins, earlier ones warm up the JIT.
+                long start = System.nanoTime();
+                int h = 0;
+                for(int i = 0; i < lookups; i++){
+                    h += chain(names, keys[i & (keys.length - 1)]).id;
+                }
+                chainNs = (double) (System.nanoTime() - start) / lookups;
+                start = System.nanoTime();
+                for(int i = 0; i < lookups; i++){
+                    h += ((NumberedLogistics) LogisticsFactory.getLogistics(keys[i & (keys.length - 1)])).id;
+                }
+                registryNs = (double) (System.nanoTime() - start) / lookups;
+                sink = h;
+            }
+            System.out.printf("%2d modes: if/else chain %.1f ns/lookup, registry %.1f ns/lookup%n", modes, chainNs, registryNs);
+        }
+    }
+
+    // what an if/else chain of string compares does: check each mode in order, then allocate.
+    private static NumberedLogistics chain(String[] names, String mode){
+        for(int i = 0; i < names.length; i++){
+            if(names[i].equals(mode)){
+                return new NumberedLogistics(i);
+            }
+        }
+        throw new IllegalArgumentException("Unknown logistics mode: " + mode);
+    }
+}
+
 public class Main {
     public static void main(String[] args) {
         /* [1]
@@ -99,6 +645,39 @@ public class Main {
         // just say macbook air, dont care how they do it.
         */
 
+        // [3] registry based factory, shared instances, Train registered without editing the factory.
+        LogisticsFactory.register("Train", new Train());
+        LogisticsService logisticsService = new LogisticsService();
+        logisticsService.send("Road");
+        logisticsService.send("Train");
+        System.out.println("same Air instance: " + (LogisticsFactory.getLogistics("Air") == LogisticsFactory.getLogistics("Air")));
+
+        // [4] batch dispatch at shift end.
+        LogisticsFactory.register("Courier", new PartnerLogistics("courier", 5, 0.01));
+        LogisticsFactory.register("Freight", new PartnerLogistics("freight", 20, 0.0));
+        List<Shipment> shipments = new ArrayList<>();
+        for(int i = 0; i < 2_000; i++){
+            shipments.add(new Shipment("SHP-" + i, i % 4 == 0 ? "Freight" : "Courier"));
+        }
+        shipments.add(new Shipment("SHP-X", "Submarine")); // unknown mode, fails on its own.
+        try{
+            BatchDispatchResult result = logisticsService.sendAll(shipments, Map.of("Courier", 64, "Freight", 16));
+            System.out.println(result);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        // [5] quote every mode within 50ms. the pricing sources are local stand ins, Freight's takes 200ms, so it is left out.
+        LogisticsFactory.registerPricing("Road", new LocalCostModel("Road", 40, 0.0004, 55, 12, 2));
+        LogisticsFactory.registerPricing("Air", new LocalCostModel("Air", 150, 0.0015, 700, 6, 5));
+        LogisticsFactory.registerPricing("Courier", new LocalCostModel("Courier", 60, 0.0009, 45, 4, 5));
+        LogisticsFactory.registerPricing("Freight", new LocalCostModel("Freight", 25, 0.0002, 40, 24, 200));
+        try(QuoteEngine quoteEngine = new QuoteEngine(50, 60_000, 10_000)){
+            System.out.println("all quotes: " + quoteEngine.quotes("Delhi", "Mumbai", 25));
+            System.out.println("cheapest: " + quoteEngine.best("Delhi", "Mumbai", 25, QuoteObjective.CHEAPEST).orElse(null));
+            System.out.println("fastest: " + quoteEngine.best("Delhi", "Mumbai", 25, QuoteObjective.FASTEST).orElse(null));
+        }
+
         //Pros
         // promotes loose coupling
         // enhances extensibility (OCP)
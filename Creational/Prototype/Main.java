@@ -1,5 +1,13 @@
 // package Creational.Prototype;
+// needs JDK 21: [5] sends every mail on its own virtual thread.
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 // creational design pattern
 
 import javax.management.RuntimeErrorException;
@@ -34,6 +42,7 @@ interface EmailTemplate extends Cloneable{
     void setContent(String content);
     void send(String to);
     String getContent(); // to get the content of the email.
+    String render(String to); // the line send() would print, without printing it.
 }
 
 class WelcomeEmail implements EmailTemplate{
@@ -65,27 +74,848 @@ class WelcomeEmail implements EmailTemplate{
     }
     @Override
     public void send(String to){
-        System.out.println("Sending to " + to + ": [" + subject + "] " + content);
+        System.out.println(render(to));
+    }
+    @Override
+    public String render(String to){
+        return "Sending to " + to + ": [" + subject + "] " + content;
+    }
+}
+
+// [3] compiled templates.
+// with [2] every send is clone() + setContent(some new string) + string concat for the final message.
+// at millions of sends a day that is a lot of short lived objects.
+// instead parse the template once: "Hi {{name}}!" -> ["Hi ", slot 0, "!"] and keep that array forever,
+// rendering is then just appending the pieces into one StringBuilder that each thread reuses.
+final class CompiledTemplate {
+    // a segment is either literal text or the index of a value to put there.
+    private static final class Segment {
+        final String literal;
+        final int slot;
+        Segment(String literal, int slot){
+            this.literal = literal;
+            this.slot = slot;
+        }
+    }
+
+    private final Segment[] segments;
+    private final int slotCount;
+
+    private CompiledTemplate(Segment[] segments, int slotCount){
+        this.segments = segments;
+        this.slotCount = slotCount;
+    }
+
+    // placeholders look like {{name}}, slot numbers follow the order of placeholderNames.
+    public static CompiledTemplate compile(String source, String... placeholderNames){
+        List<String> names = Arrays.asList(placeholderNames);
+        List<Segment> segments = new ArrayList<>();
+        int from = 0;
+        while(true){
+            int open = source.indexOf("{{", from);
+            if(open < 0){
+                break;
+            }
+            int close = source.indexOf("}}", open + 2);
+            if(close < 0){
+                throw new IllegalArgumentException("Unclosed placeholder at " + open + " in: " + source);
+            }
+            String name = source.substring(open + 2, close).trim();
+            int slot = names.indexOf(name);
+            if(slot < 0){
+                throw new IllegalArgumentException("Unknown placeholder {{" + name + "}} in: " + source);
+            }
+            if(open > from){
+                segments.add(new Segment(source.substring(from, open), -1));
+            }
+            segments.add(new Segment(null, slot));
+            from = close + 2;
+        }
+        if(from < source.length()){
+            segments.add(new Segment(source.substring(from), -1));
+        }
+        return new CompiledTemplate(segments.toArray(new Segment[0]), names.size());
+    }
+
+    // placeholder names in order of first appearance, for templates that come from files.
+    public static String[] placeholdersOf(String source){
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        int from = 0;
+        int open;
+        while((open = source.indexOf("{{", from)) >= 0){
+            int close = source.indexOf("}}", open + 2);
+            if(close < 0){
+                break; // compile() reports it.
+            }
+            names.add(source.substring(open + 2, close).trim());
+            from = close + 2;
+        }
+        return names.toArray(new String[0]);
+    }
+
+    public void renderTo(StringBuilder out, String... values){
+        if(values.length != slotCount){
+            throw new IllegalArgumentException("Expected " + slotCount + " values, got " + values.length);
+        }
+        for(Segment segment : segments){
+            out.append(segment.slot < 0 ? segment.literal : values[segment.slot]);
+        }
+    }
+}
+
+class CompiledEmailTemplate {
+    // one buffer per thread, reused for every render on that thread. grows once, then stays.
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final String subject;
+    private final CompiledTemplate body;
+
+    public CompiledEmailTemplate(String subject, String body, String... placeholderNames){
+        this.subject = subject;
+        this.body = CompiledTemplate.compile(body, placeholderNames);
+    }
+
+    // values are then passed in order of first appearance of each placeholder in the body.
+    public CompiledEmailTemplate(String subject, String body){
+        this(subject, body, CompiledTemplate.placeholdersOf(body));
+    }
+
+    // returns the thread's buffer, only valid until the next render on the same thread.
+    // copy it (toString) if you need to keep it.
+    public CharSequence render(String to, String... values){
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        out.append("Sending to ").append(to).append(": [").append(subject).append("] ");
+        body.renderTo(out, values);
+        return out;
+    }
+
+    public void send(String to, String... values){
+        System.out.println(render(to, values));
+    }
+}
+
+// [4] templates that come from files instead of code.
+// the registry only hands out clones, fill the placeholders on the clone: with("name", "Dana").
+class FileEmailTemplate implements EmailTemplate{
+    private String content;
+    private final String subject;
+    private Map<String, String> values = Map.of();
+    // content parsed once, like [3]. clones share it (it never changes), setContent drops it.
+    private String[] placeholders;
+    private CompiledTemplate body;
+    public FileEmailTemplate(String subject, String content){
+        this.subject = subject;
+        this.content = content;
+        compileBody();
+    }
+
+    private void compileBody(){
+        placeholders = CompiledTemplate.placeholdersOf(content);
+        body = CompiledTemplate.compile(content, placeholders);
+    }
+
+    public FileEmailTemplate with(String placeholder, String value){
+        Map<String, String> next = new HashMap<>(values);
+        next.put(placeholder, value);
+        values = Map.copyOf(next); // a new map each time, so clones never share a map that changes.
+        return this;
+    }
+
+    @Override
+    public EmailTemplate clone(){
+        try{
+            return (FileEmailTemplate) super.clone(); // strings, an immutable map and the parsed body, shallow copy is enough.
+        }
+        catch (CloneNotSupportedException e){
+            throw new RuntimeException("Clone failed", e);
+        }
+    }
+
+    @Override
+    public String getContent(){
+        return content;
+    }
+
+    @Override
+    public void setContent(String content){
+        this.content = content;
+        this.body = null; // parsed again on the next render.
+    }
+    @Override
+    public void send(String to){
+        System.out.println(render(to));
+    }
+    // a placeholder without a value is an error, never sent out as raw {{name}}.
+    @Override
+    public String render(String to){
+        if(body == null){
+            compileBody();
+        }
+        String[] filled = new String[placeholders.length];
+        for(int i = 0; i < placeholders.length; i++){
+            filled[i] = values.get(placeholders[i]);
+            if(filled[i] == null){
+                throw new IllegalStateException("No value for {{" + placeholders[i] + "}}");
+            }
+        }
+        StringBuilder out = new StringBuilder("Sending to ").append(to).append(": [").append(subject).append("] ");
+        body.renderTo(out, filled);
+        return out.toString();
+    }
+
+    public CompiledEmailTemplate compile(){
+        return new CompiledEmailTemplate(subject, content);
     }
 }
 
 //can be overkill
 // in case you have multiple patterns this will help.
+// [4] the registry used to be a static HashMap filled once in a static block, so changing a template
+// meant a restart (and writing to a HashMap while others read it is not thread safe).
+// now the whole map is swapped at once: build a new snapshot on the side, then publish it with one
+// atomic write. readers just do current.get(), no locks, they never wait for a writer.
 class EmailTemplateRegistry{
-    private static final Map<String, EmailTemplate> templates = new HashMap<>();
-    static {
+    // everything the registry knows at one point in time. never modified after construction,
+    // a reader holding an old snapshot keeps seeing a complete, old set of templates, never half of an update.
+    // private, so the prototypes inside are only ever cloned, never handed out.
+    private static final class TemplateSnapshot {
+        final long version;
+        final Map<String, EmailTemplate> prototypes;
+        final Map<String, CompiledEmailTemplate> compiled;
+
+        TemplateSnapshot(long version, Map<String, EmailTemplate> prototypes, Map<String, CompiledEmailTemplate> compiled){
+            this.version = version;
+            this.prototypes = Map.copyOf(prototypes);
+            this.compiled = Map.copyOf(compiled);
+        }
+    }
+
+    private static final AtomicReference<TemplateSnapshot> current = new AtomicReference<>(defaults());
+
+    private static TemplateSnapshot defaults(){
+        Map<String, EmailTemplate> templates = new HashMap<>();
+        Map<String, CompiledEmailTemplate> compiledTemplates = new HashMap<>();
         templates.put("welcome", new WelcomeEmail());
         // first time we create the object, it will cost us.
         // add more templates like discount, feature-update etc
+        compiledTemplates.put("welcome", new CompiledEmailTemplate("Welcome to TUF+", "Hi {{name}}! Thanks for joining us.", "name"));
+        return new TemplateSnapshot(0, templates, compiledTemplates);
+    }
+
+    // [3] compiled mode, no clone. the same instance is shared by every caller, it never changes.
+    public static CompiledEmailTemplate getCompiledTemplate(String type){
+        CompiledEmailTemplate template = current.get().compiled.get(type);
+        if(template == null){
+            throw new IllegalArgumentException("Unknown email template: " + type);
+        }
+        return template;
     }
 
     public static EmailTemplate getTemplate(String type){
-        return templates.get(type).clone();
+        EmailTemplate prototype = current.get().prototypes.get(type);
+        if(prototype == null){
+            throw new IllegalArgumentException("Unknown email template: " + type);
+        }
+        return prototype.clone();
         // get that initial object from templates.get(type
         // then for that object call clone method, retunr the cloned stuff. 
         // make sure deep cloning.
 
     }
+
+    // bumped by every update, to tell whether a reload has happened.
+    public static long version(){
+        return current.get().version;
+    }
+
+    // copy on write: copy the maps, apply the changes, publish. if another writer published in between,
+    // compareAndSet fails and we redo it on top of their snapshot, so no update is lost.
+    // removed = types to drop (e.g. the file was deleted).
+    public static long update(Map<String, FileEmailTemplate> changed, Set<String> removed){
+        while(true){
+            TemplateSnapshot previous = current.get();
+            Map<String, EmailTemplate> prototypes = new HashMap<>(previous.prototypes);
+            Map<String, CompiledEmailTemplate> compiled = new HashMap<>(previous.compiled);
+            for(String type : removed){
+                prototypes.remove(type);
+                compiled.remove(type);
+            }
+            changed.forEach((type, template) -> {
+                prototypes.put(type, template);
+                compiled.put(type, template.compile());
+            });
+            TemplateSnapshot next = new TemplateSnapshot(previous.version + 1, prototypes, compiled);
+            if(current.compareAndSet(previous, next)){
+                return next.version;
+            }
+        }
+    }
+}
+
+// [4] watches a folder of <type>.tmpl files (first line = subject, rest = body with {{placeholders}})
+// and pushes every change into the registry. parsing happens here on the watcher thread,
+// request threads only ever see the finished snapshot.
+// tip: write the new file under another name and rename it over the old one,
+// otherwise we may pick up a half written file (it is just re-read on the next modify event).
+class TemplateDirectoryReloader implements AutoCloseable {
+    private static final String SUFFIX = ".tmpl";
+
+    private final Path directory;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    TemplateDirectoryReloader(Path directory) throws IOException {
+        this.directory = directory;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.watcher = new Thread(this::watchLoop, "email-template-reloader");
+        watcher.setDaemon(true);
+    }
+
+    public TemplateDirectoryReloader start() throws IOException {
+        Map<String, FileEmailTemplate> initial = new HashMap<>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)){
+            for(Path file : files){
+                initial.put(typeOf(file), parse(file));
+            }
+        }
+        EmailTemplateRegistry.update(initial, Set.of());
+        watcher.start();
+        return this;
+    }
+
+    private void watchLoop(){
+        while(true){
+            WatchKey key;
+            try{
+                key = watchService.take();
+            } catch(InterruptedException | ClosedWatchServiceException e){
+                return;
+            }
+            // one event batch -> one new snapshot, even if several files changed together.
+            Map<String, FileEmailTemplate> changed = new HashMap<>();
+            Set<String> removed = new HashSet<>();
+            for(WatchEvent<?> event : key.pollEvents()){
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+                    continue;
+                }
+                Path file = directory.resolve((Path) event.context());
+                if(!file.getFileName().toString().endsWith(SUFFIX)){
+                    continue;
+                }
+                String type = typeOf(file);
+                if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE){
+                    removed.add(type);
+                    changed.remove(type);
+                    continue;
+                }
+                try{
+                    changed.put(type, parse(file));
+                    removed.remove(type);
+                } catch(IOException | IllegalArgumentException e){
+                    // keep serving the old version of this template.
+                    System.err.println("Skipping template " + file + ": " + e.getMessage());
+                }
+            }
+            if(!changed.isEmpty() || !removed.isEmpty()){
+                EmailTemplateRegistry.update(changed, removed);
+            }
+            if(!key.reset()){
+                return; // directory is gone.
+            }
+        }
+    }
+
+    private static String typeOf(Path file){
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    private static FileEmailTemplate parse(Path file) throws IOException {
+        String text = Files.readString(file, StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        if(newline < 0){
+            throw new IllegalArgumentException("Expected a subject line and a body");
+        }
+        FileEmailTemplate template = new FileEmailTemplate(text.substring(0, newline).trim(), text.substring(newline + 1).trim());
+        template.compile(); // fail here, on the watcher thread, not later on a request thread.
+        return template;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
+
+// [3] clone() per send vs compiled template, time and bytes allocated per send.
+// expect the big difference in bytes per send (the clone, the content string and the final message
+// vs only the varargs array). time per send is close, the JIT is very good at string concat,
+// the win shows up as less GC work when many threads send at once.
+//   javac Main.java && java PrototypeBenchmark [sends]
+class PrototypeBenchmark {
+    private static volatile int sink; // so the JIT cant drop the rendering.
+
+    public static void main(String[] args){
+        int sends = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] names = new String[1024];
+        String[] recipients = new String[names.length];
+        for(int i = 0; i < names.length; i++){
+            names[i] = "user" + i;
+            recipients[i] = names[i] + "@gmail.com";
+        }
+        CompiledEmailTemplate compiled = EmailTemplateRegistry.getCompiledTemplate("welcome");
+
+        for(int round = 0; round < 5; round++){ // first rounds are JIT warmup, read the last one.
+            long[] cloned = measure(() -> {
+                int h = 0;
+                for(int i = 0; i < sends; i++){
+                    int r = i & (names.length - 1);
+                    EmailTemplate email = EmailTemplateRegistry.getTemplate("welcome");
+                    email.setContent("Hi " + names[r] + "! Thanks for joining us.");
+                    h += email.render(recipients[r]).length();
+                }
+                sink = h;
+            });
+            long[] rendered = measure(() -> {
+                int h = 0;
+                for(int i = 0; i < sends; i++){
+                    int r = i & (names.length - 1);
+                    h += compiled.render(recipients[r], names[r]).length();
+                }
+                sink = h;
+            });
+            System.out.printf("round %d: clone %.1f ns/send %.0f B/send | compiled %.1f ns/send %.0f B/send%n", round,
+                    (double) cloned[0] / sends, (double) cloned[1] / sends,
+                    (double) rendered[0] / sends, (double) rendered[1] / sends);
+        }
+    }
+
+    // {nanos, bytes allocated by this thread}
+    static long[] measure(Runnable body){
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        return new long[]{ nanos, threads.getCurrentThreadAllocatedBytes() - bytesBefore };
+    }
+}
+
+// [5] bulk sends for campaigns.
+// send(to) is one recipient per call, a campaign job looping over millions of addresses one by one
+// spends almost all its time waiting on the mail server. sending is I/O bound, so we want lots of
+// sends in flight, but bounded, or we open a million connections and run out of memory.
+// virtual threads: one cheap thread per email, blocking in deliver() only parks the virtual thread.
+// a semaphore caps how many are in flight. the caller iterates the recipient stream and has to
+// get a permit before starting the next send, so the stream is read only as fast as mails go out (backpressure).
+interface EmailTransport {
+    void deliver(String to, String message) throws Exception;
+}
+
+final class Recipient {
+    final String address;
+    final String[] values; // placeholder values for this recipient.
+
+    Recipient(String address, String... values){
+        this.address = address;
+        this.values = values;
+    }
+}
+
+final class BatchResult {
+    final int batch;
+    final int sent;
+    final int failed;
+    final long elapsedNanos; // from the first send of the batch starting to its last send finishing.
+
+    BatchResult(int batch, int sent, int failed, long elapsedNanos){
+        this.batch = batch;
+        this.sent = sent;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    @Override
+    public String toString(){
+        return "batch " + batch + ": sent=" + sent + " failed=" + failed + " in " + elapsedNanos / 1_000_000 + "ms";
+    }
+}
+
+final class CampaignReport {
+    final long sent;
+    final long failed;
+    final long elapsedNanos;
+    final long p50Millis;
+    final long p99Millis;
+    final List<BatchResult> batches;
+
+    CampaignReport(long sent, long failed, long elapsedNanos, long p50Millis, long p99Millis, List<BatchResult> batches){
+        this.sent = sent;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.batches = batches;
+    }
+
+    double throughputPerSecond(){
+        return (sent + failed) * 1_000_000_000.0 / Math.max(1, elapsedNanos);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("sent=%d failed=%d in %dms -> %.0f mails/s, latency p50=%dms p99=%dms, batches=%d",
+                sent, failed, elapsedNanos / 1_000_000, throughputPerSecond(),
+                p50Millis, p99Millis, batches.size());
+    }
+}
+
+class BulkEmailSender {
+    // a mail takes milliseconds, whole millisecond buckets are precise enough. everything slower lands in the last one.
+    private static final int MAX_LATENCY_MILLIS = 10_000;
+    private final EmailTransport transport;
+    private final int maxInFlight;
+    private final int batchSize;
+
+    BulkEmailSender(EmailTransport transport, int maxInFlight, int batchSize){
+        if(maxInFlight <= 0 || batchSize <= 0){
+            throw new IllegalArgumentException("maxInFlight and batchSize must be positive, got " + maxInFlight + " and " + batchSize);
+        }
+        this.transport = transport;
+        this.maxInFlight = maxInFlight;
+        this.batchSize = batchSize;
+    }
+
+    public CampaignReport send(CompiledEmailTemplate template, Stream<Recipient> recipients) throws InterruptedException {
+        return send(template, recipients, batch -> { });
+    }
+
+    // onBatch is called (on a sender thread) as soon as every mail of a batch has finished, in whatever order batches finish.
+    public CampaignReport send(CompiledEmailTemplate template, Stream<Recipient> recipients, Consumer<BatchResult> onBatch) throws InterruptedException {
+        Semaphore permits = new Semaphore(maxInFlight);
+        AtomicLongArray latencyMillis = new AtomicLongArray(MAX_LATENCY_MILLIS + 1); // count per whole millisecond.
+        LongAdder sent = new LongAdder();
+        LongAdder failed = new LongAdder();
+        List<BatchResult> batches = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()){
+            Iterator<Recipient> it = recipients.iterator();
+            int batchNumber = 0;
+            while(it.hasNext()){
+                Batch batch = new Batch(batchNumber++, onBatch, batches);
+                int inBatch = 0;
+                while(inBatch < batchSize && it.hasNext()){
+                    Recipient recipient = it.next();
+                    // render here, on the dispatching thread: it keeps its thread local buffer for the whole campaign.
+                    // a fresh virtual thread per mail would allocate a new buffer for every mail.
+                    String message;
+                    try{
+                        message = template.render(recipient.address, recipient.values).toString();
+                    } catch(RuntimeException e){
+                        message = null; // e.g. wrong number of values, counted as failed below.
+                    }
+                    String rendered = message;
+                    permits.acquire(); // backpressure, wait here while maxInFlight sends are running.
+                    batch.started();
+                    inBatch++;
+                    executor.execute(() -> {
+                        long begin = System.nanoTime();
+                        boolean ok = false;
+                        try{
+                            if(rendered != null){
+                                transport.deliver(recipient.address, rendered);
+                                ok = true;
+                            }
+                        } catch(Exception e){
+                            // counted as failed, the rest of the campaign carries on.
+                        } finally {
+                            latencyMillis.getAndIncrement((int) Math.min(MAX_LATENCY_MILLIS, (System.nanoTime() - begin) / 1_000_000));
+                            (ok ? sent : failed).increment();
+                            permits.release();
+                            batch.finished(ok);
+                        }
+                    });
+                }
+                batch.sealed();
+            }
+        } // closing the executor waits for every send to finish.
+
+        batches.sort(Comparator.comparingInt(b -> b.batch));
+        long total = sent.sum() + failed.sum();
+        return new CampaignReport(sent.sum(), failed.sum(), System.nanoTime() - start,
+                percentileMillis(latencyMillis, total, 0.50), percentileMillis(latencyMillis, total, 0.99), List.copyOf(batches));
+    }
+
+    private static long percentileMillis(AtomicLongArray latencyMillis, long total, double quantile){
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int ms = 0; ms < latencyMillis.length(); ms++){
+            seen += latencyMillis.get(ms);
+            if(seen >= target){
+                return ms;
+            }
+        }
+        return 0;
+    }
+
+    // counts down the mails of one batch. the batch is done when it is sealed (all its mails were started)
+    // and every started mail has finished, whoever gets there last publishes the result.
+    private static final class Batch {
+        private final int number;
+        private final Consumer<BatchResult> onBatch;
+        private final List<BatchResult> results;
+        private final AtomicInteger pending = new AtomicInteger(1); // 1 = not sealed yet.
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final long start = System.nanoTime();
+
+        Batch(int number, Consumer<BatchResult> onBatch, List<BatchResult> results){
+            this.number = number;
+            this.onBatch = onBatch;
+            this.results = results;
+        }
+
+        void started(){
+            pending.incrementAndGet();
+        }
+
+        void finished(boolean ok){
+            (ok ? sent : failed).incrementAndGet();
+            if(pending.decrementAndGet() == 0){
+                complete();
+            }
+        }
+
+        void sealed(){
+            if(pending.decrementAndGet() == 0){
+                complete();
+            }
+        }
+
+        private void complete(){
+            BatchResult result = new BatchResult(number, sent.get(), failed.get(), System.nanoTime() - start);
+            results.add(result);
+            onBatch.accept(result);
+        }
+    }
+}
+
+// stand in for the mail server: waits `latency` (+ up to `jitter`) and fails a share of the mails.
+class StubTransport implements EmailTransport {
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+
+    StubTransport(long latencyMillis, long jitterMillis, double failureRate){
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void deliver(String to, String message) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Thread.sleep(latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0));
+        if(random.nextDouble() < failureRate){
+            throw new IOException("550 mailbox unavailable: " + to);
+        }
+    }
+}
+
+// [6] copy on write clones.
+// a real template carries more than two strings, e.g. headers. a proper deep clone() copies all of it,
+// even when the caller only reads the subject and body and sends, which is most sends.
+// copy on write: clone() only shares the parent's state and marks it shared.
+// the first setter on either side copies the state, so nobody ever sees someone else's change.
+final class EmailState {
+    String subject;
+    String content;
+    final Map<String, String> headers;
+
+    EmailState(String subject, String content, Map<String, String> headers){
+        this.subject = subject;
+        this.content = content;
+        this.headers = headers;
+    }
+
+    EmailState deepCopy(){
+        return new EmailState(subject, content, new HashMap<>(headers));
+    }
+}
+
+// eager version for comparison, every clone() deep copies the headers.
+class DeepCloneEmail implements EmailTemplate {
+    private EmailState state;
+
+    DeepCloneEmail(String subject, String content, Map<String, String> headers){
+        this.state = new EmailState(subject, content, new HashMap<>(headers));
+    }
+
+    @Override
+    public EmailTemplate clone(){
+        try{
+            DeepCloneEmail copy = (DeepCloneEmail) super.clone();
+            copy.state = state.deepCopy();
+            return copy;
+        }
+        catch (CloneNotSupportedException e){
+            throw new RuntimeException("Clone failed", e);
+        }
+    }
+
+    @Override
+    public String getContent(){
+        return state.content;
+    }
+    public String getHeader(String name){
+        return state.headers.get(name);
+    }
+    @Override
+    public void setContent(String content){
+        state.content = content;
+    }
+    public void setHeader(String name, String value){
+        state.headers.put(name, value);
+    }
+    @Override
+    public void send(String to){
+        System.out.println(render(to));
+    }
+    @Override
+    public String render(String to){
+        return "Sending to " + to + ": [" + state.subject + "] " + state.content;
+    }
+}
+
+// not thread safe, same as WelcomeEmail, a clone belongs to one sender.
+// the prototype kept in a registry is never written, so sharing its state with clones is safe.
+class CopyOnWriteEmail implements EmailTemplate {
+    private EmailState state;
+    private boolean shared; // true -> state may be used by another copy too, copy it before writing.
+
+    CopyOnWriteEmail(String subject, String content, Map<String, String> headers){
+        this.state = new EmailState(subject, content, new HashMap<>(headers));
+    }
+
+    @Override
+    public EmailTemplate clone(){
+        try{
+            CopyOnWriteEmail copy = (CopyOnWriteEmail) super.clone(); // copies the state reference only.
+            copy.shared = true;
+            this.shared = true; // the parent must not write into the state its clone now reads.
+            return copy;
+        }
+        catch (CloneNotSupportedException e){
+            throw new RuntimeException("Clone failed", e);
+        }
+    }
+
+    private EmailState writableState(){
+        if(shared){
+            state = state.deepCopy();
+            shared = false;
+        }
+        return state;
+    }
+
+    @Override
+    public String getContent(){
+        return state.content;
+    }
+    public String getHeader(String name){
+        return state.headers.get(name);
+    }
+    @Override
+    public void setContent(String content){
+        writableState().content = content;
+    }
+    public void setHeader(String name, String value){
+        writableState().headers.put(name, value);
+    }
+    @Override
+    public void send(String to){
+        System.out.println(render(to));
+    }
+    @Override
+    public String render(String to){
+        return "Sending to " + to + ": [" + state.subject + "] " + state.content;
+    }
+}
+
+// [6] read mostly send path: clone, read subject/body/headers, 1 in `writeEvery` clones also gets setContent.
+//   javac Main.java && java CopyOnWriteBenchmark [sends] [writeEvery]
+class CopyOnWriteBenchmark {
+    private static volatile int sink;
+
+    public static void main(String[] args){
+        int sends = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int writeEvery = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Reply-To", "support@takeuforward.org");
+        headers.put("List-Unsubscribe", "<https://takeuforward.org/unsubscribe>");
+        headers.put("X-Campaign", "welcome-2026");
+        headers.put("X-Priority", "3");
+        EmailTemplate deep = new DeepCloneEmail("Welcome to TUF+", "Hi there! Thanks for joining us.", headers);
+        EmailTemplate lazy = new CopyOnWriteEmail("Welcome to TUF+", "Hi there! Thanks for joining us.", headers);
+
+        for(int round = 0; round < 4; round++){ // first rounds are JIT warmup, read the last one.
+            Stats eager = Stats.measure(() -> sendAll(deep, sends, writeEvery));
+            Stats cow = Stats.measure(() -> sendAll(lazy, sends, writeEvery));
+            System.out.printf("round %d | deep clone: %s | copy on write: %s%n", round, eager.perSend(sends), cow.perSend(sends));
+        }
+    }
+
+    private static void sendAll(EmailTemplate prototype, int sends, int writeEvery){
+        int h = 0;
+        for(int i = 0; i < sends; i++){
+            EmailTemplate email = prototype.clone();
+            if(i % writeEvery == 0){
+                email.setContent("Hi user" + (i & 1023) + "! Thanks for joining us.");
+            }
+            h += email.getContent().length();
+        }
+        sink = h;
+    }
+
+    // allocation of this thread plus what the collectors did meanwhile.
+    private static final class Stats {
+        long nanos;
+        long bytes;
+        long gcCount;
+        long gcMillis;
+
+        static Stats measure(Runnable body){
+            Stats stats = new Stats();
+            long[] gcBefore = gc();
+            long[] run = PrototypeBenchmark.measure(body);
+            stats.nanos = run[0];
+            stats.bytes = run[1];
+            long[] gcAfter = gc();
+            stats.gcCount = gcAfter[0] - gcBefore[0];
+            stats.gcMillis = gcAfter[1] - gcBefore[1];
+            return stats;
+        }
+
+        private static long[] gc(){
+            long count = 0;
+            long millis = 0;
+            for(java.lang.management.GarbageCollectorMXBean bean : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()){
+                count += Math.max(0, bean.getCollectionCount());
+                millis += Math.max(0, bean.getCollectionTime());
+            }
+            return new long[]{ count, millis };
+        }
+
+        String perSend(int sends){
+            double seconds = nanos / 1_000_000_000.0;
+            return String.format("%.1f ns/send, %.0f B/send, %.0f MB/s allocated, %d GCs (%d ms)",
+                    (double) nanos / sends, (double) bytes / sends, bytes / seconds / (1024 * 1024), gcCount, gcMillis);
+        }
+    }
 }
 
 public class Main {
@@ -138,6 +968,59 @@ public class Main {
         EmailTemplate welcomeEmail3 = new WelcomeEmail();
         EmailTemplate welcomeEmail4 = welcomeEmail3.clone();
 
+        // [3] compiled template, nothing cloned, only the recipient specific values are passed.
+        CompiledEmailTemplate compiledWelcome = EmailTemplateRegistry.getCompiledTemplate("welcome");
+        compiledWelcome.send("a@gmail.com", "Asha");
+        compiledWelcome.send("b@gmail.com", "Bilal");
+
+        // [4] hot reload. drop a file in the folder, the registry picks it up without a restart.
+        Path folder = null;
+        try{
+            folder = Files.createTempDirectory("email-templates");
+            TemplateDirectoryReloader reloader = new TemplateDirectoryReloader(folder);
+            try(reloader){
+                reloader.start();
+                long before = EmailTemplateRegistry.version();
+                Path draft = Files.writeString(folder.resolve("discount.draft"), "20% off for you\nHi {{name}}, use code {{code}} at checkout.");
+                Files.move(draft, folder.resolve("discount.tmpl"), StandardCopyOption.ATOMIC_MOVE);
+                for(int i = 0; i < 100 && EmailTemplateRegistry.version() == before; i++){
+                    Thread.sleep(50); // the watcher thread swaps the snapshot in the background.
+                }
+                EmailTemplateRegistry.getCompiledTemplate("discount").send("c@gmail.com", "Chen", "TUF20");
+                FileEmailTemplate discount = (FileEmailTemplate) EmailTemplateRegistry.getTemplate("discount");
+                discount.with("name", "Dana").with("code", "TUF20").send("d@gmail.com");
+            }
+        } catch(IOException | InterruptedException | RuntimeException e){
+            System.out.println("reload demo failed: " + e.getMessage());
+        } finally{
+            if(folder != null){
+                try(Stream<Path> files = Files.walk(folder)){
+                    files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                } catch(IOException e){
+                    System.out.println("could not delete " + folder + ": " + e.getMessage());
+                }
+            }
+        }
+
+        // [6] copy on write clone, the parent is not affected by the clone's setContent.
+        CopyOnWriteEmail prototype = new CopyOnWriteEmail("Welcome to TUF+", "Hi there! Thanks for joining us.", Map.of("Reply-To", "support@takeuforward.org"));
+        EmailTemplate readOnlyCopy = prototype.clone(); // shares the state, nothing copied.
+        EmailTemplate editedCopy = prototype.clone();
+        editedCopy.setContent("Hi Dev! Thanks for joining us."); // state copied here, on first write.
+        System.out.println(prototype.getContent() + " | " + readOnlyCopy.getContent() + " | " + editedCopy.getContent());
+
+        // [5] bulk campaign, 20k recipients, 1000 sends in flight, 20-30ms per mail, 1% failures.
+        StubTransport transport = new StubTransport(20, 10, 0.01);
+        BulkEmailSender sender = new BulkEmailSender(transport, 1_000, 5_000);
+        Stream<Recipient> recipients = java.util.stream.IntStream.range(0, 20_000)
+                .mapToObj(i -> new Recipient("user" + i + "@gmail.com", "user" + i));
+        try{
+            CampaignReport report = sender.send(EmailTemplateRegistry.getCompiledTemplate("welcome"), recipients, System.out::println);
+            System.out.println(report);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
         //pros
         //faster object creation
         // reduces subclassing
@@ -19,6 +19,17 @@ class JudgeAnalytics{
 */
 
 import javax.print.attribute.standard.JobHoldUntil;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
 
 /* [2]
 //Eager Loading.
@@ -127,6 +138,886 @@ class JudgeAnalytics{
 }
 */
 
+// [7] Holder idiom + striped counters for contest load.
+// problem with [6] once we actually count: run++ is read-modify-write, not atomic.
+// hundreds of judge worker threads doing run++ at once -> lost updates.
+// AtomicLong fixes the lost counts but every thread now CASes the same memory location,
+// that cache line keeps bouncing between cores (cache-line ping-pong) and throughput drops.
+// fix -> split the counter into cells (stripes), each thread adds into "its" cell,
+// a read just sums up the cells. same idea as java.util.concurrent.atomic.LongAdder.
+class StripedCounter {
+    // cells are PAD longs (128 bytes) apart, so two cells never sit on the same cache line
+    // (64 byte line + the adjacent line the cpu likes to prefetch). this is the padding against false sharing.
+    private static final int PAD = 16;
+    private static final int MAX_STRIPES = 64;
+
+    // every thread remembers which cell it is using, and moves to another one if it sees contention.
+    // getId() and not threadId(), which only exists from JDK 19 on. this file still builds on 17.
+    @SuppressWarnings("deprecation")
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> {
+        int seed = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32);
+        return new int[]{ seed == 0 ? 1 : seed };
+    });
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    StripedCounter(){
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    StripedCounter(int stripes){
+        int size = 1;
+        while(size < stripes && size < MAX_STRIPES){
+            size <<= 1; // power of two so we can use & instead of %.
+        }
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * PAD);
+    }
+
+    public void increment(){
+        add(1);
+    }
+
+    public void add(long x){
+        int[] probe = PROBE.get();
+        int i = (probe[0] & mask) * PAD;
+        long v = cells.get(i);
+        if(!cells.compareAndSet(i, v, v + x)){
+            // someone else is on this cell, hop to a different one next time (xorshift).
+            int h = probe[0];
+            h ^= h << 13;
+            h ^= h >>> 17;
+            h ^= h << 5;
+            probe[0] = h;
+            cells.getAndAdd(i, x);
+        }
+    }
+
+    // not an atomic snapshot, increments that race with sum() may or may not be counted.
+    // good enough for analytics, and it never blocks writers.
+    public long sum(){
+        long sum = 0;
+        for(int i = 0; i <= mask; i++){
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+}
+
+// lifetime totals cant show a submit storm, so we also keep per second counts for the last few minutes.
+// ring buffer of buckets, one per second. a bucket stores (epoch second << 32 | count) in one long,
+// so "new second -> reset bucket" and "same second -> count++" are one CAS, no lock and no allocation.
+// striped like the counters above so worker threads dont all CAS the same bucket.
+class RateWindow {
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    private final int seconds;
+    private final int stripeMask;
+    private final AtomicLongArray buckets;
+
+    RateWindow(int seconds, int stripes){
+        int size = 1;
+        while(size < stripes){
+            size <<= 1;
+        }
+        this.seconds = seconds;
+        this.stripeMask = size - 1;
+        this.buckets = new AtomicLongArray(size * seconds);
+    }
+
+    @SuppressWarnings("deprecation") // getId(), see PROBE in StripedCounter.
+    public void record(long epochSecond){
+        long stamp = epochSecond & COUNT_MASK;
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        int i = stripe * seconds + (int) (epochSecond % seconds);
+        while(true){
+            long v = buckets.get(i);
+            long bucketStamp = v >>> 32;
+            long next;
+            if(bucketStamp == stamp){
+                next = v + 1;
+            }
+            else if(bucketStamp < stamp){
+                next = (stamp << 32) | 1; // bucket belongs to an older lap of the ring, start over.
+            }
+            else{
+                return; // we were descheduled for a whole lap, that second is already gone.
+            }
+            if(buckets.compareAndSet(i, v, next)){
+                return;
+            }
+        }
+    }
+
+    // counts[0] is the current (partial) second, counts[k] is k seconds ago.
+    public long[] countsEndingAt(long epochSecond){
+        long[] counts = new long[seconds];
+        for(int k = 0; k < seconds && epochSecond - k >= 0; k++){
+            counts[k] = countAt(epochSecond - k);
+        }
+        return counts;
+    }
+
+    // count for a single second, 0 if it already fell out of the ring. does not allocate.
+    public long countAt(long epochSecond){
+        long stamp = epochSecond & COUNT_MASK;
+        int slot = (int) (epochSecond % seconds);
+        long count = 0;
+        for(int stripe = 0; stripe <= stripeMask; stripe++){
+            long v = buckets.get(stripe * seconds + slot);
+            if((v >>> 32) == stamp){
+                count += v & COUNT_MASK;
+            }
+        }
+        return count;
+    }
+}
+
+// fixed memory latency histogram, log-linear buckets (same layout idea as HdrHistogram).
+// values below 64ns get one bucket each, after that every power of two is split into 32 linear
+// sub buckets, so any recorded value is off by at most ~3%. 1152 longs cover up to 2^40 ns (~18 min).
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos){
+        counts.getAndIncrement(indexOf(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+
+    private static int indexOf(long value){
+        if(value < 2 * SUB_BUCKETS){
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // middle of the bucket, not the lower edge, to halve the worst case error.
+    private static long valueOf(int index){
+        if(index < 2 * SUB_BUCKETS){
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index % SUB_BUCKETS + SUB_BUCKETS;
+        return (top << shift) + ((1L << shift) >> 1);
+    }
+
+    public long[] copyCounts(){
+        long[] copy = new long[BUCKETS];
+        copyCountsInto(copy);
+        return copy;
+    }
+
+    // for callers that reuse one array and must not allocate.
+    public void copyCountsInto(long[] dest){
+        for(int i = 0; i < BUCKETS; i++){
+            dest[i] = counts.get(i);
+        }
+    }
+
+    public static int bucketCount(){
+        return BUCKETS;
+    }
+
+    // percentile over a copy, so p50/p99/p999 in one snapshot come from the same counts.
+    public static long percentile(long[] counts, double quantile){
+        long total = 0;
+        for(long c : counts){
+            total += c;
+        }
+        if(total == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++){
+            seen += counts[i];
+            if(seen >= target){
+                return valueOf(i);
+            }
+        }
+        return valueOf(counts.length - 1);
+    }
+}
+
+// read only view handed to dashboards. built once from copies, never changes afterwards.
+final class JudgeAnalyticsSnapshot {
+    public final long takenAtEpochSecond;
+    public final long runCount;
+    public final long submitCount;
+    public final long[] runsPerSecond; // [0] = current second, [k] = k seconds ago.
+    public final long[] submitsPerSecond;
+    public final long latencyCount;
+    public final long p50Nanos;
+    public final long p99Nanos;
+    public final long p999Nanos;
+
+    JudgeAnalyticsSnapshot(long takenAtEpochSecond, long runCount, long submitCount,
+                           long[] runsPerSecond, long[] submitsPerSecond, long[] latencyCounts){
+        this.takenAtEpochSecond = takenAtEpochSecond;
+        this.runCount = runCount;
+        this.submitCount = submitCount;
+        this.runsPerSecond = runsPerSecond;
+        this.submitsPerSecond = submitsPerSecond;
+        long total = 0;
+        for(long c : latencyCounts){
+            total += c;
+        }
+        this.latencyCount = total;
+        this.p50Nanos = LatencyHistogram.percentile(latencyCounts, 0.50);
+        this.p99Nanos = LatencyHistogram.percentile(latencyCounts, 0.99);
+        this.p999Nanos = LatencyHistogram.percentile(latencyCounts, 0.999);
+    }
+
+    // sum over the last `seconds` full seconds, skipping the partial current one.
+    public double runsPerSecondOver(int seconds){
+        return averageOf(runsPerSecond, seconds);
+    }
+    public double submitsPerSecondOver(int seconds){
+        return averageOf(submitsPerSecond, seconds);
+    }
+
+    private static double averageOf(long[] perSecond, int seconds){
+        int n = Math.min(seconds, perSecond.length - 1);
+        long sum = 0;
+        for(int k = 1; k <= n; k++){
+            sum += perSecond[k];
+        }
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    @Override
+    public String toString(){
+        return "JudgeAnalyticsSnapshot{" +
+                "runs=" + runCount +
+                ", submits=" + submitCount +
+                ", runsNow=" + runsPerSecond[0] +
+                ", submitsNow=" + submitsPerSecond[0] +
+                ", latencyCount=" + latencyCount +
+                ", p50=" + p50Nanos + "ns" +
+                ", p99=" + p99Nanos + "ns" +
+                ", p999=" + p999Nanos + "ns" +
+                '}';
+    }
+}
+
+class JudgeAnalytics{
+    // breakdown counters exist per problem and per language, keep them small.
+    private static final int BREAKDOWN_STRIPES = 4;
+    private static final int WINDOW_SECONDS = 5 * 60; // last 5 minutes.
+    private static final int WINDOW_STRIPES = 8;
+
+    private final StripedCounter run = new StripedCounter();
+    private final StripedCounter submit = new StripedCounter();
+    private final ConcurrentHashMap<String, StripedCounter> runsByProblem = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StripedCounter> submitsByProblem = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StripedCounter> runsByLanguage = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StripedCounter> submitsByLanguage = new ConcurrentHashMap<>();
+    private final RateWindow runWindow = new RateWindow(WINDOW_SECONDS, WINDOW_STRIPES);
+    private final RateWindow submitWindow = new RateWindow(WINDOW_SECONDS, WINDOW_STRIPES);
+    private final LatencyHistogram judgeLatency = new LatencyHistogram();
+
+    private JudgeAnalytics(){
+
+    }
+    private static class Holder {
+        private static final JudgeAnalytics judgeAnalytics = new JudgeAnalytics();
+    }
+
+    public static JudgeAnalytics getInstance(){
+        return Holder.judgeAnalytics;
+    }
+
+    public void countRun(){
+        run.increment();
+        runWindow.record(nowSecond());
+    }
+    public void countSubmit(){
+        submit.increment();
+        submitWindow.record(nowSecond());
+    }
+    public void countRun(String problemId, String language){
+        countRun();
+        counterFor(runsByProblem, problemId).increment();
+        counterFor(runsByLanguage, language).increment();
+    }
+    public void countSubmit(String problemId, String language){
+        countSubmit();
+        counterFor(submitsByProblem, problemId).increment();
+        counterFor(submitsByLanguage, language).increment();
+    }
+    // how long the judge took for one run/submit, measured by the caller with System.nanoTime().
+    public void recordJudgeLatency(long nanos){
+        judgeLatency.record(nanos);
+    }
+
+    public long getRunCount(){
+        return run.sum();
+    }
+    public long getSubmitCount(){
+        return submit.sum();
+    }
+    public Map<String, Long> getRunsByProblem(){
+        return snapshotOf(runsByProblem);
+    }
+    public Map<String, Long> getSubmitsByProblem(){
+        return snapshotOf(submitsByProblem);
+    }
+    public Map<String, Long> getRunsByLanguage(){
+        return snapshotOf(runsByLanguage);
+    }
+    public Map<String, Long> getSubmitsByLanguage(){
+        return snapshotOf(submitsByLanguage);
+    }
+
+    // every metric is read once against the same "now", so the rates and percentiles line up.
+    // counts that land while we copy may show up in one metric and not yet in another,
+    // that is the price of never blocking the hot path.
+    public JudgeAnalyticsSnapshot snapshot(){
+        long now = nowSecond();
+        return new JudgeAnalyticsSnapshot(now, getRunCount(), getSubmitCount(),
+                runWindow.countsEndingAt(now), submitWindow.countsEndingAt(now), judgeLatency.copyCounts());
+    }
+
+    // allocation free reads for the memory mapped exporter.
+    long runsIn(long epochSecond){
+        return runWindow.countAt(epochSecond);
+    }
+    long submitsIn(long epochSecond){
+        return submitWindow.countAt(epochSecond);
+    }
+    void copyLatencyCountsInto(long[] dest){
+        judgeLatency.copyCountsInto(dest);
+    }
+
+    private static long nowSecond(){
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static StripedCounter counterFor(ConcurrentHashMap<String, StripedCounter> counters, String key){
+        // plain get first, computeIfAbsent locks the bin even when the key is already there.
+        StripedCounter counter = counters.get(key);
+        if(counter == null){
+            counter = counters.computeIfAbsent(key, k -> new StripedCounter(BREAKDOWN_STRIPES));
+        }
+        return counter;
+    }
+
+    private static Map<String, Long> snapshotOf(ConcurrentHashMap<String, StripedCounter> counters){
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((key, counter) -> snapshot.put(key, counter.sum()));
+        return snapshot;
+    }
+}
+
+// [8] benchmarking getInstance() of [2]..[6].
+// the five variants are copied here under their own names so all of them can live in one program.
+// how to run (from this folder):
+//   javac Main.java && java SingletonBenchmark
+//   java SingletonBenchmark --warmup 2 --measure 5 --out results.md
+// every (variant, thread count) runs in its own fresh JVM, like JMH forks, because:
+//  - first call cost is class loading + init of the singleton, that only happens once per JVM.
+//  - the JIT specialises the loop to one variant, one variant cant slow down another.
+class EagerJudgeAnalytics{ // [2]
+    private static final EagerJudgeAnalytics judgeAnalytics = new EagerJudgeAnalytics();
+    private EagerJudgeAnalytics(){
+
+    }
+    public static EagerJudgeAnalytics getInstance(){
+        return judgeAnalytics;
+    }
+}
+
+class LazyJudgeAnalytics{ // [3] not thread safe, multi threaded first calls may create more than one object.
+    private static LazyJudgeAnalytics judgeAnalytics;
+    private LazyJudgeAnalytics(){
+
+    }
+    public static LazyJudgeAnalytics getInstance(){
+        if(judgeAnalytics == null){
+            judgeAnalytics = new LazyJudgeAnalytics();
+        }
+        return judgeAnalytics;
+    }
+}
+
+class SynchronizedJudgeAnalytics{ // [4]
+    private static SynchronizedJudgeAnalytics judgeAnalytics;
+    private SynchronizedJudgeAnalytics(){
+
+    }
+    public static synchronized SynchronizedJudgeAnalytics getInstance(){
+        if(judgeAnalytics == null){
+            judgeAnalytics = new SynchronizedJudgeAnalytics();
+        }
+        return judgeAnalytics;
+    }
+}
+
+class DoubleCheckedJudgeAnalytics{ // [5]
+    private static volatile DoubleCheckedJudgeAnalytics judgeAnalytics;
+    private DoubleCheckedJudgeAnalytics(){
+
+    }
+    public static DoubleCheckedJudgeAnalytics getInstance(){
+        if(judgeAnalytics == null){
+            synchronized (DoubleCheckedJudgeAnalytics.class){
+                if(judgeAnalytics == null){
+                    judgeAnalytics = new DoubleCheckedJudgeAnalytics();
+                }
+            }
+        }
+        return judgeAnalytics;
+    }
+}
+
+class HolderJudgeAnalytics{ // [6]
+    private HolderJudgeAnalytics(){
+
+    }
+    private static class Holder {
+        private static final HolderJudgeAnalytics judgeAnalytics = new HolderJudgeAnalytics();
+    }
+    public static HolderJudgeAnalytics getInstance(){
+        return Holder.judgeAnalytics;
+    }
+}
+
+class SingletonBenchmark {
+    private static final String[] VARIANTS = {"eager", "lazy-unsafe", "synchronized", "double-checked", "holder"};
+
+    // results are folded into this so the JIT cant throw the getInstance() calls away (a poor man's Blackhole).
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length > 0 && args[0].equals("--fork")){
+            runFork(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+        int warmupSeconds = 1;
+        int measureSeconds = 2;
+        String out = null;
+        for(int i = 0; i < args.length - 1; i += 2){
+            switch (args[i]) {
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--measure":
+                    measureSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--out":
+                    out = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> threadCounts = new TreeSet<>(List.of(1, 2, 4, cores));
+
+        StringBuilder table = new StringBuilder();
+        table.append("getInstance() throughput, ").append(cores).append(" cores, ")
+             .append(System.getProperty("java.vm.name")).append(' ').append(System.getProperty("java.version")).append("\n\n");
+        table.append("| variant | first call (us) |");
+        for(int threads : threadCounts){
+            table.append(' ').append(threads).append(threads == 1 ? " thread" : " threads").append(" (Mops/s) |");
+        }
+        table.append("\n|---|---|");
+        for(int i = 0; i < threadCounts.size(); i++){
+            table.append("---|");
+        }
+        table.append('\n');
+
+        for(String variant : VARIANTS){
+            table.append("| ").append(variant).append(" | ");
+            boolean firstColumn = true;
+            for(int threads : threadCounts){
+                String[] result = fork(variant, threads, warmupSeconds, measureSeconds);
+                if(firstColumn){
+                    table.append(String.format("%.1f", Long.parseLong(result[0]) / 1_000.0)).append(" |");
+                    firstColumn = false;
+                }
+                table.append(String.format(" %.1f |", Double.parseDouble(result[1]) / 1_000_000.0));
+            }
+            table.append('\n');
+        }
+
+        System.out.println(table);
+        if(out != null){
+            Files.writeString(Path.of(out), table);
+        }
+        // with 1 thread everything except synchronized is just a static field read after inlining.
+        // the interesting columns are the multi threaded ones: synchronized has every thread fight for
+        // the class monitor, the others scale with cores because the fast path never writes shared memory.
+        // on a machine with fewer cores than threads the numbers only show time slicing, not scaling.
+    }
+
+    // child JVM prints "<first call nanos> <ops per second>" on its last line.
+    private static String[] fork(String variant, int threads, int warmupSeconds, int measureSeconds) throws Exception {
+        String javaBin = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"),
+                "SingletonBenchmark", "--fork", variant, String.valueOf(threads),
+                String.valueOf(warmupSeconds), String.valueOf(measureSeconds))
+                .redirectErrorStream(true)
+                .start();
+        String last = null;
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+            String line;
+            while((line = reader.readLine()) != null){
+                last = line;
+            }
+        }
+        if(process.waitFor() != 0 || last == null){
+            throw new IllegalStateException("Fork failed for " + variant + " with " + threads + " threads: " + last);
+        }
+        return last.trim().split(" ");
+    }
+
+    private static void runFork(String variant, int threads, int warmupSeconds, int measureSeconds) throws Exception {
+        long start = System.nanoTime();
+        Object first = getInstance(variant); // loads and initialises the singleton class.
+        long firstCallNanos = System.nanoTime() - start;
+        sink = System.identityHashCode(first);
+
+        Runnable body = loopFor(variant);
+        long opsPerSecond = 0;
+        for(int round = 0; round < 2; round++){ // round 0 = warmup, round 1 = measurement.
+            int seconds = round == 0 ? warmupSeconds : measureSeconds;
+            LoopState.reset();
+            Thread[] workers = new Thread[threads];
+            CountDownLatch ready = new CountDownLatch(threads);
+            for(int t = 0; t < threads; t++){
+                workers[t] = new Thread(() -> {
+                    ready.countDown();
+                    body.run();
+                });
+                workers[t].start();
+            }
+            ready.await();
+            long begin = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            LoopState.running = false;
+            for(Thread worker : workers){
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            opsPerSecond = (long) (LoopState.ops.sum() * 1_000_000_000.0 / elapsed);
+        }
+        System.out.println(firstCallNanos + " " + opsPerSecond);
+    }
+
+    private static Object getInstance(String variant){
+        switch (variant) {
+            case "eager": return EagerJudgeAnalytics.getInstance();
+            case "lazy-unsafe": return LazyJudgeAnalytics.getInstance();
+            case "synchronized": return SynchronizedJudgeAnalytics.getInstance();
+            case "double-checked": return DoubleCheckedJudgeAnalytics.getInstance();
+            case "holder": return HolderJudgeAnalytics.getInstance();
+            default: throw new IllegalArgumentException("Unknown variant: " + variant);
+        }
+    }
+
+    // one hand written loop per variant so the call is a direct static call the JIT can inline.
+    // ops are counted in batches of 1024, the counter itself must not be what we measure.
+    private static Runnable loopFor(String variant){
+        switch (variant) {
+            case "eager": return () -> {
+                int h = 0;
+                while(LoopState.running){
+                    for(int i = 0; i < 1024; i++){
+                        h ^= System.identityHashCode(EagerJudgeAnalytics.getInstance());
+                    }
+                    LoopState.ops.add(1024);
+                }
+                sink = h;
+            };
+            case "lazy-unsafe": return () -> {
+                int h = 0;
+                while(LoopState.running){
+                    for(int i = 0; i < 1024; i++){
+                        h ^= System.identityHashCode(LazyJudgeAnalytics.getInstance());
+                    }
+                    LoopState.ops.add(1024);
+                }
+                sink = h;
+            };
+            case "synchronized": return () -> {
+                int h = 0;
+                while(LoopState.running){
+                    for(int i = 0; i < 1024; i++){
+                        h ^= System.identityHashCode(SynchronizedJudgeAnalytics.getInstance());
+                    }
+                    LoopState.ops.add(1024);
+                }
+                sink = h;
+            };
+            case "double-checked": return () -> {
+                int h = 0;
+                while(LoopState.running){
+                    for(int i = 0; i < 1024; i++){
+                        h ^= System.identityHashCode(DoubleCheckedJudgeAnalytics.getInstance());
+                    }
+                    LoopState.ops.add(1024);
+                }
+                sink = h;
+            };
+            case "holder": return () -> {
+                int h = 0;
+                while(LoopState.running){
+                    for(int i = 0; i < 1024; i++){
+                        h ^= System.identityHashCode(HolderJudgeAnalytics.getInstance());
+                    }
+                    LoopState.ops.add(1024);
+                }
+                sink = h;
+            };
+            default: throw new IllegalArgumentException("Unknown variant: " + variant);
+        }
+    }
+
+    private static class LoopState {
+        static volatile boolean running;
+        static final LongAdder ops = new LongAdder();
+
+        static void reset(){
+            ops.reset();
+            running = true;
+        }
+    }
+}
+
+// [9] exporting JudgeAnalytics through a memory mapped file.
+// a sidecar that polls snapshot() over some in-process API makes the judge JVM do the work.
+// instead we write the numbers into a fixed layout file mapped into memory, any other process can
+// map the same file and read it directly, no syscalls per read and nothing allocated by the writer.
+// consistency is done with a seqlock:
+//  writer -> seq becomes odd, write the fields, seq becomes even again.
+//  reader -> read seq, read fields, read seq again. odd or changed seq = writer was in the middle, retry.
+// all numbers are little endian longs at fixed offsets, header has a magic and a version so readers
+// can refuse files from a layout they dont know.
+final class JudgeAnalyticsLayout {
+    static final int MAGIC = 0x4A444741; // "JDGA"
+    static final int VERSION = 1;
+
+    // header
+    static final int MAGIC_OFFSET = 0;       // int
+    static final int VERSION_OFFSET = 4;     // int
+    static final int SIZE_OFFSET = 8;        // int, total bytes of the layout
+    static final int SEQ_OFFSET = 16;        // long
+
+    // record, guarded by seq
+    static final int UPDATED_AT_MILLIS = 24;
+    static final int RUN_COUNT = 32;
+    static final int SUBMIT_COUNT = 40;
+    static final int RUNS_LAST_SECOND = 48;
+    static final int SUBMITS_LAST_SECOND = 56;
+    static final int LATENCY_COUNT = 64;
+    static final int P50_NANOS = 72;
+    static final int P99_NANOS = 80;
+    static final int P999_NANOS = 88;
+    static final int SIZE = 96;
+
+    // lets us do acquire/release reads and writes on the mapped bytes.
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private JudgeAnalyticsLayout(){
+
+    }
+}
+
+class JudgeAnalyticsExporter implements AutoCloseable {
+    private final JudgeAnalytics analytics;
+    private final MappedByteBuffer buffer;
+    private final long[] latencyScratch = new long[LatencyHistogram.bucketCount()]; // reused every publish.
+    private final long intervalNanos;
+    private final Thread publisher;
+    private volatile boolean running = true;
+
+    JudgeAnalyticsExporter(JudgeAnalytics analytics, Path file, long intervalMillis) throws IOException {
+        this.analytics = analytics;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            // the mapping stays valid after the channel is closed.
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, JudgeAnalyticsLayout.SIZE);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        JudgeAnalyticsLayout.LONGS.setRelease(buffer, JudgeAnalyticsLayout.SEQ_OFFSET, 0L);
+        buffer.putInt(JudgeAnalyticsLayout.VERSION_OFFSET, JudgeAnalyticsLayout.VERSION);
+        buffer.putInt(JudgeAnalyticsLayout.SIZE_OFFSET, JudgeAnalyticsLayout.SIZE);
+        buffer.putInt(JudgeAnalyticsLayout.MAGIC_OFFSET, JudgeAnalyticsLayout.MAGIC); // magic last, marks the header as ready.
+        this.publisher = new Thread(this::publishLoop, "judge-analytics-exporter");
+        publisher.setDaemon(true);
+    }
+
+    public JudgeAnalyticsExporter start(){
+        publisher.start();
+        return this;
+    }
+
+    // only one thread may publish (the exporter thread, or the caller if start() was not used).
+    public void publish(){
+        long nowMillis = System.currentTimeMillis();
+        long lastSecond = nowMillis / 1000 - 1; // last full second, the current one is still filling.
+        long runs = analytics.getRunCount();
+        long submits = analytics.getSubmitCount();
+        long runsLastSecond = analytics.runsIn(lastSecond);
+        long submitsLastSecond = analytics.submitsIn(lastSecond);
+        analytics.copyLatencyCountsInto(latencyScratch);
+        long latencyCount = 0;
+        for(long c : latencyScratch){
+            latencyCount += c;
+        }
+        long p50 = LatencyHistogram.percentile(latencyScratch, 0.50);
+        long p99 = LatencyHistogram.percentile(latencyScratch, 0.99);
+        long p999 = LatencyHistogram.percentile(latencyScratch, 0.999);
+
+        // everything is computed up front so the odd (being written) window stays as short as possible.
+        long seq = (long) JudgeAnalyticsLayout.LONGS.getOpaque(buffer, JudgeAnalyticsLayout.SEQ_OFFSET);
+        JudgeAnalyticsLayout.LONGS.setOpaque(buffer, JudgeAnalyticsLayout.SEQ_OFFSET, seq + 1);
+        VarHandle.storeStoreFence(); // odd seq must be visible before any field changes.
+        buffer.putLong(JudgeAnalyticsLayout.UPDATED_AT_MILLIS, nowMillis);
+        buffer.putLong(JudgeAnalyticsLayout.RUN_COUNT, runs);
+        buffer.putLong(JudgeAnalyticsLayout.SUBMIT_COUNT, submits);
+        buffer.putLong(JudgeAnalyticsLayout.RUNS_LAST_SECOND, runsLastSecond);
+        buffer.putLong(JudgeAnalyticsLayout.SUBMITS_LAST_SECOND, submitsLastSecond);
+        buffer.putLong(JudgeAnalyticsLayout.LATENCY_COUNT, latencyCount);
+        buffer.putLong(JudgeAnalyticsLayout.P50_NANOS, p50);
+        buffer.putLong(JudgeAnalyticsLayout.P99_NANOS, p99);
+        buffer.putLong(JudgeAnalyticsLayout.P999_NANOS, p999);
+        JudgeAnalyticsLayout.LONGS.setRelease(buffer, JudgeAnalyticsLayout.SEQ_OFFSET, seq + 2); // even again, fields visible before it.
+    }
+
+    private void publishLoop(){
+        while(running){
+            publish();
+            LockSupport.parkNanos(intervalNanos);
+        }
+    }
+
+    @Override
+    public void close(){
+        running = false;
+        LockSupport.unpark(publisher);
+    }
+}
+
+// sidecar reader. maps the file read only and prints a line every time the writer publishes.
+//   java JudgeAnalyticsTail /path/to/judge-analytics.bin [pollMillis]
+// a writer that dies mid update leaves seq odd forever. the reader spins a little, then backs off,
+// and gives up once the same odd seq has been there for longer than stuckMillis.
+class JudgeAnalyticsTail {
+    private static final int SPINS_BEFORE_PARKING = 1_000;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final MappedByteBuffer buffer;
+    private final long stuckNanos;
+    private final long[] fields = new long[(JudgeAnalyticsLayout.SIZE - JudgeAnalyticsLayout.UPDATED_AT_MILLIS) / Long.BYTES];
+    private long lastSeq = -1;
+
+    JudgeAnalyticsTail(Path file) throws IOException {
+        this(file, 1000);
+    }
+
+    JudgeAnalyticsTail(Path file, long stuckMillis) throws IOException {
+        this.stuckNanos = TimeUnit.MILLISECONDS.toNanos(stuckMillis);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, JudgeAnalyticsLayout.SIZE);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.getInt(JudgeAnalyticsLayout.MAGIC_OFFSET) != JudgeAnalyticsLayout.MAGIC){
+            throw new IllegalStateException("Not a JudgeAnalytics export: " + file);
+        }
+        int version = buffer.getInt(JudgeAnalyticsLayout.VERSION_OFFSET);
+        if(version != JudgeAnalyticsLayout.VERSION){
+            throw new IllegalStateException("Unsupported JudgeAnalytics export version: " + version);
+        }
+    }
+
+    // copies a consistent record into fields, returns its seq, or -1 if nothing new was published.
+    // throws IllegalStateException if the writer is stuck mid update (most likely it died there).
+    long poll(){
+        long stuckSeq = -1;
+        long stuckSince = 0;
+        int spins = 0;
+        while(true){
+            long before = (long) JudgeAnalyticsLayout.LONGS.getAcquire(buffer, JudgeAnalyticsLayout.SEQ_OFFSET);
+            if((before & 1) != 0){
+                // writer is mid update.
+                if(before != stuckSeq){
+                    stuckSeq = before;
+                    stuckSince = System.nanoTime();
+                    spins = 0;
+                } else if(System.nanoTime() - stuckSince > stuckNanos){
+                    throw new IllegalStateException("Writer stuck mid update at seq " + before + " for over "
+                            + TimeUnit.NANOSECONDS.toMillis(stuckNanos) + "ms, it probably died");
+                }
+                if(++spins < SPINS_BEFORE_PARKING){
+                    Thread.onSpinWait(); // a normal update takes nanoseconds.
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                continue;
+            }
+            if(before == lastSeq || before == 0){
+                return -1;
+            }
+            for(int i = 0; i < fields.length; i++){
+                fields[i] = buffer.getLong(JudgeAnalyticsLayout.UPDATED_AT_MILLIS + i * Long.BYTES);
+            }
+            VarHandle.loadLoadFence(); // field reads must not move below the second seq read.
+            long after = (long) JudgeAnalyticsLayout.LONGS.getOpaque(buffer, JudgeAnalyticsLayout.SEQ_OFFSET);
+            if(after == before){
+                lastSeq = before;
+                return before;
+            }
+        }
+    }
+
+    long field(int offset){
+        return fields[(offset - JudgeAnalyticsLayout.UPDATED_AT_MILLIS) / Long.BYTES];
+    }
+
+    String format(){
+        return "updatedAt=" + field(JudgeAnalyticsLayout.UPDATED_AT_MILLIS) +
+                " runs=" + field(JudgeAnalyticsLayout.RUN_COUNT) +
+                " submits=" + field(JudgeAnalyticsLayout.SUBMIT_COUNT) +
+                " runs/s=" + field(JudgeAnalyticsLayout.RUNS_LAST_SECOND) +
+                " submits/s=" + field(JudgeAnalyticsLayout.SUBMITS_LAST_SECOND) +
+                " p50=" + field(JudgeAnalyticsLayout.P50_NANOS) + "ns" +
+                " p99=" + field(JudgeAnalyticsLayout.P99_NANOS) + "ns" +
+                " p999=" + field(JudgeAnalyticsLayout.P999_NANOS) + "ns";
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.out.println("usage: java JudgeAnalyticsTail <file> [pollMillis]");
+            return;
+        }
+        long pollMillis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        JudgeAnalyticsTail tail = new JudgeAnalyticsTail(Path.of(args[0]));
+        long lastPublishNanos = System.nanoTime();
+        boolean reportedStale = false;
+        while(true){
+            if(tail.poll() != -1){
+                System.out.println(tail.format());
+                lastPublishNanos = System.nanoTime();
+                reportedStale = false;
+            } else if(!reportedStale && System.nanoTime() - lastPublishNanos > TimeUnit.MILLISECONDS.toNanos(10 * pollMillis)){
+                // the exporter publishes every interval even when nothing changed, so silence means it is gone.
+                System.out.println("no update for " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastPublishNanos) + "ms, writer is stale or dead");
+                reportedStale = true;
+            }
+            Thread.sleep(pollMillis);
+        }
+    }
+}
+
 public class Main {
     public static void main(String[] args) {
         /* [1]
@@ -179,6 +1070,56 @@ public class Main {
         JudgeAnalytics judgeAnalytics2 = JudgeAnalytics.getInstance();
         System.out.println(judgeAnalytics2); // same address printed.
         */
+        // [7] striped counters under contest load.
+        JudgeAnalytics judgeAnalytics = JudgeAnalytics.getInstance();
+        String[] problems = {"two-sum", "lru-cache", "n-queens"};
+        String[] languages = {"java", "cpp", "python"};
+        int workers = 8;
+        int requestsPerWorker = 100_000;
+        Thread[] threads = new Thread[workers];
+        for(int t = 0; t < workers; t++){
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < requestsPerWorker; i++){
+                    String problem = problems[(id + i) % problems.length];
+                    String language = languages[i % languages.length];
+                    long start = System.nanoTime();
+                    judgeAnalytics.countRun(problem, language);
+                    judgeAnalytics.recordJudgeLatency(System.nanoTime() - start);
+                    if(i % 10 == 0){
+                        judgeAnalytics.countSubmit(problem, language);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads){
+            try{
+                thread.join();
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("runs: " + judgeAnalytics.getRunCount() + " (expected " + (workers * requestsPerWorker) + ")");
+        System.out.println("submits: " + judgeAnalytics.getSubmitCount());
+        System.out.println("runs by problem: " + judgeAnalytics.getRunsByProblem());
+        System.out.println("submits by language: " + judgeAnalytics.getSubmitsByLanguage());
+        // dashboards poll snapshot() instead of the individual getters.
+        System.out.println(judgeAnalytics.snapshot());
+
+        // [9] same numbers, read by "another process" through the mapped file.
+        try{
+            Path exportFile = Files.createTempFile("judge-analytics", ".bin");
+            try(JudgeAnalyticsExporter exporter = new JudgeAnalyticsExporter(judgeAnalytics, exportFile, 1000)){
+                exporter.publish();
+                JudgeAnalyticsTail tail = new JudgeAnalyticsTail(exportFile);
+                tail.poll();
+                System.out.println("exported: " + tail.format());
+            }
+            Files.delete(exportFile);
+        } catch(IOException e){
+            System.out.println("export failed: " + e.getMessage());
+        }
         
 
         // Pros and cons of Singeton
@@ -1,4 +1,14 @@
 // package Structural.Adapter;
+// needs JDK 21: virtual threads, ExecutorService.close() and Thread.sleep(Duration) are used.
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
 
 /*
 //[1] without Adapter pattern 
@@ -110,8 +120,1108 @@ class CheckoutService {
 */
 
 
+// [3] same classes as [2], now used for payouts at high volume.
+interface PaymentGateway {
+    void pay(String orderId, double amount);
+}
+
+class PayUGateway implements PaymentGateway {
+    @Override
+    public void pay(String orderId, double amount){
+        System.out.println("Paid " + amount + " using PayU for order: " + orderId);
+    }
+}
+
+class RazorpayAPI{
+    public void makePayment(String orderId, double amount){
+        System.out.println("Paid " + amount + " using Razorpay for order: " + orderId);
+    }
+}
+
+class RazorpayAdapter implements PaymentGateway {
+    private RazorpayAPI razorpayAPI;
+
+    public RazorpayAdapter(){
+        this(new RazorpayAPI());
+    }
+
+    public RazorpayAdapter(RazorpayAPI razorpayAPI){
+        this.razorpayAPI = razorpayAPI;
+    }
+
+    @Override
+    public void pay(String orderId, double amount){
+        razorpayAPI.makePayment(orderId, amount); //adapting paramters.
+    }
+}
+
+class CheckoutService {
+    private PaymentGateway paymentGateway;
+
+    public CheckoutService(PaymentGateway paymentGateway){
+        this.paymentGateway = paymentGateway;
+    }
+
+    public void checkout(String orderId, double amount){
+        paymentGateway.pay(orderId, amount);
+    }
+}
+
+// [3] micro batching.
+// for payouts we call makePayment once per order, each call is a network round trip to Razorpay.
+// Razorpay's bulk payout endpoint takes many orders in one round trip.
+// the batching adapter still looks like a normal PaymentGateway to the caller, but behind the scenes
+// it collects pay() calls for a short window (or until it has N of them) and sends them as one batch call.
+// every caller gets its own future, completed when its order's result comes back.
+
+// stand in for the bulk endpoint: one round trip + a bit per order. a few orders fail on their own.
+class RazorpayBatchAPI {
+    private final long roundTripMillis;
+    private final double perOrderMillis;
+    private final double failureRate;
+    private final LongAdder calls = new LongAdder();
+
+    RazorpayBatchAPI(long roundTripMillis, double perOrderMillis, double failureRate){
+        this.roundTripMillis = roundTripMillis;
+        this.perOrderMillis = perOrderMillis;
+        this.failureRate = failureRate;
+    }
+
+    // result[i] = true if orderIds[i] was paid.
+    public boolean[] makeBatchPayment(List<String> orderIds, List<Double> amounts){
+        calls.increment();
+        try{
+            Thread.sleep(roundTripMillis + (long) (perOrderMillis * orderIds.size()));
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch payment interrupted", e);
+        }
+        boolean[] paid = new boolean[orderIds.size()];
+        for(int i = 0; i < paid.length; i++){
+            paid[i] = ThreadLocalRandom.current().nextDouble() >= failureRate;
+        }
+        return paid;
+    }
+
+    long calls(){
+        return calls.sum();
+    }
+}
+
+class BatchingRazorpayAdapter implements PaymentGateway, AutoCloseable {
+    private static final class Pending {
+        final String orderId;
+        final double amount;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Pending(String orderId, double amount){
+            this.orderId = orderId;
+            this.amount = amount;
+        }
+    }
+
+    private final RazorpayBatchAPI api;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService senders; // batch calls run here, so the next batch can fill up meanwhile.
+    private final Thread collector;
+    private final Object lifecycle = new Object(); // an order is either queued before close() starts, or rejected.
+    private volatile boolean running = true;
+    private final Set<Pending> inFlight = ConcurrentHashMap.newKeySet(); // handed to a sender, result not back yet.
+
+    // metrics
+    private final AtomicLongArray batchSizes; // batchSizes[n] = how many batches had n orders.
+    private final LatencyRecorder batchLatency = new LatencyRecorder();
+    private final LatencyRecorder callerLatency = new LatencyRecorder();
+
+    BatchingRazorpayAdapter(RazorpayBatchAPI api, int maxBatch, long windowMillis, int maxConcurrentBatches){
+        this.api = api;
+        this.maxBatch = maxBatch;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.batchSizes = new AtomicLongArray(maxBatch + 1);
+        this.senders = Executors.newFixedThreadPool(maxConcurrentBatches);
+        this.collector = new Thread(this::collectLoop, "razorpay-batcher");
+        collector.setDaemon(true);
+        collector.start();
+    }
+
+    public CompletableFuture<Void> payAsync(String orderId, double amount){
+        Pending pending = new Pending(orderId, amount);
+        synchronized(lifecycle){
+            if(!running){
+                throw new RejectedExecutionException("Batching adapter is closed");
+            }
+            queue.add(pending);
+        }
+        return pending.result;
+    }
+
+    // the normal PaymentGateway contract: blocks until this order's batch came back,
+    // and throws the provider's exception itself, like the unbatched adapter, not a CompletionException.
+    @Override
+    public void pay(String orderId, double amount){
+        try{
+            payAsync(orderId, amount).join();
+        } catch(CompletionException e){
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+    }
+
+    // waits for the first order, then keeps collecting until the batch is full or the window
+    // (counted from the first order) is over. an order never waits more than the window for its batch to leave.
+    private void collectLoop(){
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while(running || !queue.isEmpty()){
+            try{
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null){
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedAt + windowNanos;
+                while(batch.size() < maxBatch){
+                    queue.drainTo(batch, maxBatch - batch.size()); // grab whatever is already there.
+                    long remaining = deadline - System.nanoTime();
+                    if(batch.size() >= maxBatch || remaining <= 0){
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+                List<Pending> toSend = List.copyOf(batch);
+                batch.clear();
+                inFlight.addAll(toSend);
+                senders.execute(() -> send(toSend));
+            } catch(InterruptedException e){
+                fail(batch, new IllegalStateException("Batching adapter interrupted before the batch was sent"));
+                return;
+            }
+        }
+    }
+
+    private void send(List<Pending> batch){
+        List<String> orderIds = new ArrayList<>(batch.size());
+        List<Double> amounts = new ArrayList<>(batch.size());
+        for(Pending pending : batch){
+            orderIds.add(pending.orderId);
+            amounts.add(pending.amount);
+        }
+        long start = System.nanoTime();
+        try{
+            boolean[] paid = api.makeBatchPayment(orderIds, amounts);
+            long now = System.nanoTime();
+            batchLatency.record(now - start);
+            batchSizes.incrementAndGet(batch.size());
+            for(int i = 0; i < batch.size(); i++){
+                Pending pending = batch.get(i);
+                callerLatency.record(now - pending.enqueuedAt);
+                if(paid[i]){
+                    pending.result.complete(null);
+                }
+                else{
+                    pending.result.completeExceptionally(new IllegalStateException("Razorpay declined order " + pending.orderId));
+                }
+            }
+        } catch(RuntimeException e){
+            fail(batch, e); // the whole round trip failed, every order in it failed.
+        } finally {
+            inFlight.removeAll(batch);
+        }
+    }
+
+    private static void fail(Collection<Pending> orders, RuntimeException error){
+        for(Pending pending : orders){
+            pending.result.completeExceptionally(error);
+        }
+    }
+
+    String report(){
+        long batches = 0;
+        long orders = 0;
+        int largest = 0;
+        for(int size = 1; size < batchSizes.length(); size++){
+            long count = batchSizes.get(size);
+            batches += count;
+            orders += count * size;
+            if(count > 0){
+                largest = size;
+            }
+        }
+        return String.format("%d orders in %d batches (avg %.1f, largest %d) | batch call p50=%.1fms p99=%.1fms | caller p50=%.1fms p99=%.1fms",
+                orders, batches, batches == 0 ? 0.0 : (double) orders / batches, largest,
+                batchLatency.percentile(0.50) / 1e6, batchLatency.percentile(0.99) / 1e6,
+                callerLatency.percentile(0.50) / 1e6, callerLatency.percentile(0.99) / 1e6);
+    }
+
+    // stops taking orders, sends what is queued, waits for the batches in flight.
+    // whatever did not make it (interrupted, or a batch still out after a minute) is failed, so no caller waits forever.
+    @Override
+    public void close(){
+        synchronized(lifecycle){
+            running = false;
+        }
+        try{
+            collector.join();
+            senders.shutdown();
+            senders.awaitTermination(1, TimeUnit.MINUTES);
+        } catch(InterruptedException e){
+            collector.interrupt();
+            Thread.currentThread().interrupt();
+        } finally {
+            List<Pending> leftover = new ArrayList<>(inFlight);
+            queue.drainTo(leftover);
+            fail(leftover, new IllegalStateException("Batching adapter closed before the order was paid"));
+        }
+    }
+}
+
+// batch and caller latency above, per provider call latency for the hedge delay in [4].
+// 8 buckets per power of two, so a percentile is within about 12%. the hedged gateway asks count() on every
+// pay, so the total sits in its own adder instead of being summed over all 512 buckets each time.
+class LatencyRecorder {
+    private static final int SUB = 8;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+    private final LongAdder total = new LongAdder();
+
+    void record(long nanos){
+        counts.getAndIncrement(indexOf(Math.max(1, nanos)));
+        total.increment(); // after the bucket, so a reader never sees a total the buckets dont add up to.
+    }
+
+    private static int indexOf(long value){
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = exponent < 3 ? 0 : (int) ((value >>> (exponent - 3)) & (SUB - 1));
+        return exponent * SUB + sub;
+    }
+
+    long count(){
+        return total.sum();
+    }
+
+    long percentile(double quantile){
+        long count = count();
+        if(count == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if(seen >= target){
+                int exponent = i / SUB;
+                return exponent < 3 ? 1L << exponent : (long) ((1.0 + (i % SUB + 0.5) / SUB) * (1L << exponent));
+            }
+        }
+        return 0;
+    }
+}
+
+// [4] hedged requests + circuit breaking.
+// a slow PayU call holds up checkout even when Razorpay would have answered fast.
+// hedging: if the primary has not answered by its own p95 latency, send the same order to the secondary
+// and take whichever succeeds first. only about 5% of calls get hedged, but the slow tail gets cut off.
+// a circuit breaker per provider stops sending to a provider that keeps failing or keeps going over its
+// latency budget. after a cooldown it lets one probe through to see if the provider is back.
+// the risk with hedging payments is charging twice, so the hedged call is the provider's authorize
+// (holds the amount, the slow part). the charge is captured through an idempotency ledger, and only
+// the first provider to claim the order captures it. the loser voids its authorization.
+// latency and breaker see the whole attempt, authorize + capture, so a slow or failing charge counts too.
+
+// a gateway that can hold an amount first and charge it later.
+interface TwoPhasePaymentGateway {
+    void authorize(String orderId, double amount);
+    void capture(String orderId, double amount);
+    void voidAuthorization(String orderId);
+
+    // false if authorize does not really hold anything. hedging such a provider gains nothing.
+    default boolean canHedge(){
+        return true;
+    }
+}
+
+// PayU and Razorpay as used so far only have pay(), which charges straight away.
+// that call cannot be sent twice (two providers would both charge), so these adapters CANNOT be hedged:
+// authorize does nothing and pay() runs at capture, after the claim. what they still get is the breaker,
+// which times every pay(), and the failover to the other provider when one fails or its breaker is open.
+class PayOnCaptureGateway implements TwoPhasePaymentGateway {
+    private final PaymentGateway gateway;
+
+    PayOnCaptureGateway(PaymentGateway gateway){
+        this.gateway = gateway;
+    }
+
+    @Override
+    public void authorize(String orderId, double amount){
+    }
+
+    @Override
+    public void capture(String orderId, double amount){
+        gateway.pay(orderId, amount);
+    }
+
+    @Override
+    public void voidAuthorization(String orderId){
+    }
+
+    @Override
+    public boolean canHedge(){
+        return false;
+    }
+}
+
+// orderId -> the provider that claimed it, and whether its capture went through.
+// a claim whose capture failed is released, so the order can be charged again.
+// a captured claim is kept for `retention` (long enough to catch client retries), then evicted.
+class IdempotencyLedger {
+    private static final class Claim {
+        final String orderId;
+        final String provider;
+        volatile boolean captured;
+        volatile long capturedAt;
+
+        Claim(String orderId, String provider){
+            this.orderId = orderId;
+            this.provider = provider;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Claim> claims = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Claim> settled = new ConcurrentLinkedQueue<>(); // oldest capture first.
+    private final long retentionNanos;
+
+    IdempotencyLedger(long retentionMillis){
+        this.retentionNanos = TimeUnit.MILLISECONDS.toNanos(retentionMillis);
+    }
+
+    boolean claim(String orderId, String provider){
+        evictExpired();
+        return claims.putIfAbsent(orderId, new Claim(orderId, provider)) == null;
+    }
+
+    void captured(String orderId, String provider){
+        Claim claim = claims.get(orderId);
+        if(claim != null && claim.provider.equals(provider)){
+            claim.capturedAt = System.nanoTime();
+            claim.captured = true;
+            settled.add(claim);
+        }
+    }
+
+    // only looks at the head, so it costs nothing while there is nothing to evict.
+    private void evictExpired(){
+        long now = System.nanoTime();
+        Claim oldest;
+        while((oldest = settled.peek()) != null && now - oldest.capturedAt > retentionNanos){
+            if(settled.remove(oldest)){
+                claims.remove(oldest.orderId, oldest);
+            }
+        }
+    }
+
+    void release(String orderId, String provider){
+        claims.computeIfPresent(orderId, (id, claim) -> claim.provider.equals(provider) && !claim.captured ? null : claim);
+    }
+
+    // the provider that charged this order, null while nobody has (or the charge is still in progress).
+    String chargedBy(String orderId){
+        Claim claim = claims.get(orderId);
+        return claim != null && claim.captured ? claim.provider : null;
+    }
+}
+
+// one provider behind the hedged gateway, with its own latency history and breaker.
+class ProviderLink {
+    final String name;
+    final TwoPhasePaymentGateway gateway;
+    final LatencyRecorder latency = new LatencyRecorder();
+    final CircuitBreaker breaker;
+    final LongAdder captured = new LongAdder();
+    final LongAdder voided = new LongAdder();
+
+    ProviderLink(String name, TwoPhasePaymentGateway gateway, CircuitBreaker breaker){
+        this.name = name;
+        this.gateway = gateway;
+        this.breaker = breaker;
+    }
+}
+
+// stand in for a provider's two phase API: authorize takes a round trip (with a slow tail) and fails now and then.
+class SimulatedTwoPhaseGateway implements TwoPhasePaymentGateway {
+    private final long latencyMillis;
+    private final long tailLatencyMillis;
+    private final double tailRate;
+    private volatile double failureRate;
+    final LongAdder charges = new LongAdder();
+
+    SimulatedTwoPhaseGateway(long latencyMillis, long tailLatencyMillis, double tailRate){
+        this.latencyMillis = latencyMillis;
+        this.tailLatencyMillis = tailLatencyMillis;
+        this.tailRate = tailRate;
+    }
+
+    void setFailureRate(double failureRate){
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void authorize(String orderId, double amount){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long millis = random.nextDouble() < tailRate ? tailLatencyMillis : latencyMillis;
+        try{
+            Thread.sleep(millis);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Authorization interrupted for order " + orderId, e);
+        }
+        if(random.nextDouble() < failureRate){
+            throw new IllegalStateException("Failed to authorize order " + orderId);
+        }
+    }
+
+    @Override
+    public void capture(String orderId, double amount){
+        charges.increment();
+    }
+
+    @Override
+    public void voidAuthorization(String orderId){
+    }
+}
+
+// counts the last N calls. a call is bad if it failed or went over the latency budget.
+// CLOSED -> OPEN when at least half of the window is bad. OPEN -> HALF_OPEN after the cooldown (one probe).
+// the probe decides: good closes the breaker, bad opens it again.
+class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final boolean[] window;
+    private final int minCalls;
+    private final double badRatio;
+    private final long latencyBudgetNanos;
+    private final long cooldownNanos;
+    private State state = State.CLOSED;
+    private int next;
+    private int filled;
+    private int bad;
+    private long openedAt;
+    private boolean probeInFlight;
+    private int trips;
+
+    CircuitBreaker(int windowSize, int minCalls, double badRatio, long latencyBudgetMillis, long cooldownMillis){
+        this.window = new boolean[windowSize];
+        this.minCalls = minCalls;
+        this.badRatio = badRatio;
+        this.latencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+    }
+
+    synchronized boolean allowRequest(){
+        switch(state){
+            case CLOSED:
+                return true;
+            case OPEN:
+                if(System.nanoTime() - openedAt < cooldownNanos){
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if(probeInFlight){
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void record(long nanos, boolean failed){
+        boolean isBad = failed || nanos > latencyBudgetNanos;
+        if(state == State.HALF_OPEN){
+            probeInFlight = false;
+            if(isBad){
+                open();
+            }
+            else{
+                state = State.CLOSED;
+                next = 0;
+                filled = 0;
+                bad = 0;
+                Arrays.fill(window, false);
+            }
+            return;
+        }
+        if(state == State.OPEN){
+            return; // a call that started before the breaker opened, nothing to learn from it.
+        }
+        if(filled == window.length && window[next]){
+            bad--;
+        }
+        window[next] = isBad;
+        if(isBad){
+            bad++;
+        }
+        next = (next + 1) % window.length;
+        filled = Math.min(filled + 1, window.length);
+        if(filled >= minCalls && bad >= badRatio * filled){
+            open();
+        }
+    }
+
+    private void open(){
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        trips++;
+    }
+
+    synchronized State state(){
+        return state;
+    }
+
+    synchronized int trips(){
+        return trips;
+    }
+}
+
+class HedgedPaymentGateway implements PaymentGateway, AutoCloseable {
+    private static final int MIN_SAMPLES = 20;
+
+    private final ProviderLink primary;
+    private final ProviderLink secondary;
+    private final IdempotencyLedger ledger;
+    private final ExecutorService attempts = Executors.newVirtualThreadPerTaskExecutor();
+    private final long defaultHedgeDelayNanos;
+    private final double hedgeBudget; // hedges allowed, as a fraction of calls. keeps an overloaded primary from doubling the load.
+    private final boolean hedging;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+
+    HedgedPaymentGateway(ProviderLink primary, ProviderLink secondary, IdempotencyLedger ledger,
+                         long defaultHedgeDelayMillis, double hedgeBudget, boolean hedging){
+        this.primary = primary;
+        this.secondary = secondary;
+        this.ledger = ledger;
+        this.defaultHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(defaultHedgeDelayMillis);
+        this.hedgeBudget = hedgeBudget;
+        this.hedging = hedging;
+    }
+
+    @Override
+    public void pay(String orderId, double amount){
+        if(ledger.chargedBy(orderId) != null){
+            return; // a retry of an order that was already charged.
+        }
+        calls.increment();
+        ProviderLink first = primary.breaker.allowRequest() ? primary : secondary;
+        ProviderLink other = first == primary ? secondary : primary;
+        if(first == secondary && !secondary.breaker.allowRequest()){
+            throw new IllegalStateException("No payment gateway available for order " + orderId);
+        }
+        CompletableFuture<Boolean> firstAttempt = attempt(first, orderId, amount);
+        boolean hedgeable = hedging && first.gateway.canHedge() && other.gateway.canHedge();
+        try{
+            if(!hedgeable){
+                // nothing to race, wait for the attempt. it can still fail over below.
+                firstAttempt.get();
+            }
+            if(firstAttempt.get(hedgeDelayNanos(first), TimeUnit.NANOSECONDS)){
+                return;
+            }
+            settle(orderId, firstAttempt);
+            return;
+        } catch(ExecutionException e){
+            // failed fast, try the other one right away.
+            if(!other.breaker.allowRequest()){
+                throw new IllegalStateException("Payment failed for order " + orderId, e.getCause());
+            }
+            failovers.increment();
+            settle(orderId, attempt(other, orderId, amount));
+            return;
+        } catch(TimeoutException e){
+            // slower than usual, hedge below.
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while paying order " + orderId, e);
+        }
+        if(hedges.sum() >= hedgeBudget * calls.sum() + 10 || !other.breaker.allowRequest()){
+            settle(orderId, firstAttempt);
+            return;
+        }
+        hedges.increment();
+        settle(orderId, firstSuccess(firstAttempt, attempt(other, orderId, amount)));
+    }
+
+    // p95 of what this provider usually takes. before there is enough data we use the default.
+    private long hedgeDelayNanos(ProviderLink link){
+        if(link.latency.count() < MIN_SAMPLES){
+            return defaultHedgeDelayNanos;
+        }
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(1), link.latency.percentile(0.95));
+    }
+
+    // authorize, then capture only if this provider wins the claim. true = this attempt charged the order.
+    // if the capture fails the claim is released, so a retry (or the other provider) can still charge it.
+    // latency and breaker get the whole attempt: for a pay-on-capture provider the capture is the real call.
+    private CompletableFuture<Boolean> attempt(ProviderLink link, String orderId, double amount){
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try{
+                link.gateway.authorize(orderId, amount);
+                if(!ledger.claim(orderId, link.name)){
+                    link.gateway.voidAuthorization(orderId);
+                    link.voided.increment();
+                    failed = false;
+                    return false;
+                }
+                try{
+                    link.gateway.capture(orderId, amount);
+                } catch(Throwable e){
+                    ledger.release(orderId, link.name);
+                    link.gateway.voidAuthorization(orderId);
+                    throw e;
+                }
+                ledger.captured(orderId, link.name);
+                link.captured.increment();
+                failed = false;
+                return true;
+            } finally {
+                long took = System.nanoTime() - start;
+                if(!failed){
+                    link.latency.record(took);
+                }
+                link.breaker.record(took, failed);
+            }
+        }, attempts);
+    }
+
+    // completes as soon as one attempt charged the order, fails only if both failed.
+    private static CompletableFuture<Boolean> firstSuccess(CompletableFuture<Boolean> a, CompletableFuture<Boolean> b){
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(2);
+        for(CompletableFuture<Boolean> attempt : List.of(a, b)){
+            attempt.whenComplete((charged, error) -> {
+                if(error == null && charged){
+                    result.complete(true);
+                }
+                else if(remaining.decrementAndGet() == 0){
+                    if(error != null){
+                        result.completeExceptionally(error);
+                    }
+                    else{
+                        result.complete(false); // the other one charged it.
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    // false means another attempt held the claim. that only counts as paid if that attempt really captured.
+    private void settle(String orderId, CompletableFuture<Boolean> attempt){
+        boolean charged;
+        try{
+            charged = attempt.join();
+        } catch(CompletionException e){
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+        if(!charged && ledger.chargedBy(orderId) == null){
+            throw new IllegalStateException("Order " + orderId + " was not charged, another payment for it is in progress or failed");
+        }
+    }
+
+    // waits for attempts still running, e.g. a losing hedge that is voiding its authorization.
+    @Override
+    public void close(){
+        attempts.shutdown();
+        try{
+            if(!attempts.awaitTermination(10, TimeUnit.SECONDS)){
+                attempts.shutdownNow();
+            }
+        } catch(InterruptedException e){
+            attempts.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString(){
+        return String.format("calls=%d hedges=%d failovers=%d | %s breaker=%s trips=%d captured=%d voided=%d | %s breaker=%s trips=%d captured=%d voided=%d",
+                calls.sum(), hedges.sum(), failovers.sum(),
+                primary.name, primary.breaker.state(), primary.breaker.trips(), primary.captured.sum(), primary.voided.sum(),
+                secondary.name, secondary.breaker.state(), secondary.breaker.trips(), secondary.captured.sum(), secondary.voided.sum());
+    }
+}
+
+// [5] async bridge.
+// RazorpayAPI.makePayment blocks for the whole round trip. if checkout calls it on a request thread,
+// that thread is parked for the round trip and cannot take the next request.
+// AsyncPaymentGateway returns a future instead. the adapter runs the blocking call on a virtual thread,
+// so the request thread only hands the order over and moves on.
+// the semaphore caps how many calls go to Razorpay at once. it is acquired on the virtual thread,
+// so when the cap is reached a virtual thread waits, never a request thread.
+interface AsyncPaymentGateway {
+    CompletableFuture<Void> payAsync(String orderId, double amount);
+}
+
+// stand in for the real Razorpay SDK: a blocking round trip, no printing.
+class SlowRazorpayAPI extends RazorpayAPI {
+    private final long latencyMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    SlowRazorpayAPI(long latencyMillis){
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public void makePayment(String orderId, double amount){
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try{
+            Thread.sleep(latencyMillis);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Payment interrupted for order " + orderId, e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    int maxInFlight(){
+        return maxInFlight.get();
+    }
+}
+
+class VirtualThreadRazorpayAdapter implements AsyncPaymentGateway, AutoCloseable {
+    private final RazorpayAPI razorpayAPI;
+    private final Semaphore permits;
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+
+    VirtualThreadRazorpayAdapter(RazorpayAPI razorpayAPI, int maxConcurrentCalls){
+        this.razorpayAPI = razorpayAPI;
+        this.permits = new Semaphore(maxConcurrentCalls);
+    }
+
+    @Override
+    public CompletableFuture<Void> payAsync(String orderId, double amount){
+        return CompletableFuture.runAsync(() -> {
+            permits.acquireUninterruptibly();
+            try{
+                razorpayAPI.makePayment(orderId, amount); //adapting paramters.
+            } finally {
+                permits.release();
+            }
+        }, virtualThreads);
+    }
+
+    @Override
+    public void close(){
+        virtualThreads.close(); // waits for the payments in flight.
+    }
+}
+
+class AsyncCheckoutService {
+    private AsyncPaymentGateway paymentGateway;
+
+    public AsyncCheckoutService(AsyncPaymentGateway paymentGateway){
+        this.paymentGateway = paymentGateway;
+    }
+
+    public CompletableFuture<Void> checkoutAsync(String orderId, double amount){
+        return paymentGateway.payAsync(orderId, amount);
+    }
+}
+
+// same orders through a fixed pool of request threads, once blocking (CheckoutService + RazorpayAdapter)
+// and once async. reports how long each request held its request thread and how much of that was CPU,
+// the rest is parked waiting for Razorpay.
+class AsyncBridgeLoadTest {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    static void run(int orders, int requestThreads, long razorpayMillis, int razorpayCap) throws InterruptedException {
+        SlowRazorpayAPI blockingApi = new SlowRazorpayAPI(razorpayMillis);
+        CheckoutService blocking = new CheckoutService(new RazorpayAdapter(blockingApi));
+        report("blocking", orders, requestThreads, blockingApi, (orderId, done) -> {
+            blocking.checkout(orderId, 99.0);
+            done.run();
+        });
+
+        SlowRazorpayAPI asyncApi = new SlowRazorpayAPI(razorpayMillis);
+        try(VirtualThreadRazorpayAdapter adapter = new VirtualThreadRazorpayAdapter(asyncApi, razorpayCap)){
+            AsyncCheckoutService async = new AsyncCheckoutService(adapter);
+            report("async", orders, requestThreads, asyncApi, (orderId, done) ->
+                    async.checkoutAsync(orderId, 99.0).whenComplete((ignored, error) -> done.run()));
+        }
+    }
+
+    interface Handler {
+        void handle(String orderId, Runnable done);
+    }
+
+    private static void report(String name, int orders, int requestThreads, SlowRazorpayAPI api, Handler handler) throws InterruptedException {
+        ExecutorService requestPool = Executors.newFixedThreadPool(requestThreads);
+        CountDownLatch completed = new CountDownLatch(orders);
+        LongAdder heldNanos = new LongAdder();
+        LongAdder cpuNanos = new LongAdder();
+        long start = System.nanoTime();
+        for(int i = 0; i < orders; i++){
+            String orderId = "ORD-" + i;
+            requestPool.execute(() -> {
+                long heldFrom = System.nanoTime();
+                long cpuFrom = THREADS.getCurrentThreadCpuTime();
+                handler.handle(orderId, completed::countDown);
+                cpuNanos.add(THREADS.getCurrentThreadCpuTime() - cpuFrom);
+                heldNanos.add(System.nanoTime() - heldFrom);
+            });
+        }
+        completed.await();
+        long wall = System.nanoTime() - start;
+        requestPool.shutdown();
+        requestPool.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.printf("%-8s %d orders on %d request threads: %.0f orders/s | request thread held %.3fms/order (cpu %.3fms), busy %.0f%% of wall | max %d calls in flight to Razorpay%n",
+                name, orders, requestThreads, orders / (wall / 1e9),
+                heldNanos.sum() / 1e6 / orders, cpuNanos.sum() / 1e6 / orders,
+                100.0 * heldNanos.sum() / ((double) wall * requestThreads), api.maxInFlight());
+    }
+}
+
+// [6] replaying production latency.
+// the demos above sleep for a fixed time, but real gateways have a long tail and fail now and then.
+// a profile file holds what we recorded in production for each gateway: latency percentiles and an error rate.
+//   # gateway  error rate   latency percentiles in ms (p0 and p100 are required)
+//   PayU       error=0.01   p0=4 p50=12 p90=25 p99=80 p999=250 p100=400
+// the replay stand-ins sample a latency from that curve for every call (linear between the recorded points).
+// the load generator sends checkouts at a fixed rate, like real users, whether or not earlier ones finished.
+// latency is measured from when a checkout was due, not from when it was sent. so if the generator falls behind,
+// that shows up in the percentiles instead of being hidden (coordinated omission).
+
+class LatencyProfile {
+    final String gateway;
+    final double errorRate;
+    private final double[] quantiles; // sorted, from 0 to 1
+    private final double[] millis;
+
+    LatencyProfile(String gateway, double errorRate, double[] quantiles, double[] millis){
+        this.gateway = gateway;
+        this.errorRate = errorRate;
+        this.quantiles = quantiles;
+        this.millis = millis;
+    }
+
+    // gateway name -> profile, one line per gateway.
+    static Map<String, LatencyProfile> load(Path file) throws IOException {
+        Map<String, LatencyProfile> profiles = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(file);
+        for(int n = 0; n < lines.size(); n++){
+            String line = lines.get(n).strip();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            double errorRate = 0;
+            TreeMap<Double, Double> points = new TreeMap<>();
+            for(int t = 1; t < tokens.length; t++){
+                String[] keyValue = tokens[t].split("=", 2);
+                if(keyValue.length != 2){
+                    throw new IllegalArgumentException(file + ":" + (n + 1) + ": expected key=value but got " + tokens[t]);
+                }
+                double value = Double.parseDouble(keyValue[1]);
+                if(keyValue[0].equals("error")){
+                    errorRate = value;
+                }
+                else if(keyValue[0].startsWith("p")){
+                    points.put(quantileOf(keyValue[0]), value);
+                }
+                else{
+                    throw new IllegalArgumentException(file + ":" + (n + 1) + ": unknown key " + keyValue[0]);
+                }
+            }
+            if(!points.containsKey(0.0) || !points.containsKey(1.0)){
+                throw new IllegalArgumentException(file + ":" + (n + 1) + ": p0 and p100 are required");
+            }
+            double[] quantiles = new double[points.size()];
+            double[] millis = new double[points.size()];
+            int i = 0;
+            for(Map.Entry<Double, Double> point : points.entrySet()){
+                quantiles[i] = point.getKey();
+                millis[i++] = point.getValue();
+            }
+            profiles.put(tokens[0], new LatencyProfile(tokens[0], errorRate, quantiles, millis));
+        }
+        return profiles;
+    }
+
+    // p50 -> 0.5, p99 -> 0.99, p999 -> 0.999, p100 -> 1.
+    private static double quantileOf(String key){
+        String digits = key.substring(1);
+        if(digits.equals("100")){
+            return 1.0;
+        }
+        return Double.parseDouble("0." + (digits.length() == 1 ? "0" + digits : digits));
+    }
+
+    long sampleNanos(){
+        double u = ThreadLocalRandom.current().nextDouble();
+        int i = Arrays.binarySearch(quantiles, u);
+        double ms;
+        if(i >= 0){
+            ms = millis[i];
+        }
+        else{
+            int hi = -i - 1; // quantiles[0] is 0, so hi >= 1 here.
+            int lo = hi - 1;
+            ms = millis[lo] + (millis[hi] - millis[lo]) * (u - quantiles[lo]) / (quantiles[hi] - quantiles[lo]);
+        }
+        return (long) (ms * 1_000_000);
+    }
+
+    boolean sampleFailure(){
+        return ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    static void replay(LatencyProfile profile, String orderId){
+        try{
+            Thread.sleep(Duration.ofNanos(profile.sampleNanos()));
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(profile.gateway + " interrupted for order " + orderId, e);
+        }
+        if(profile.sampleFailure()){
+            throw new IllegalStateException(profile.gateway + " failed order " + orderId);
+        }
+    }
+}
+
+class ReplayPayUGateway extends PayUGateway {
+    private final LatencyProfile profile;
+
+    ReplayPayUGateway(LatencyProfile profile){
+        this.profile = profile;
+    }
+
+    @Override
+    public void pay(String orderId, double amount){
+        LatencyProfile.replay(profile, orderId);
+    }
+}
+
+class ReplayRazorpayAPI extends RazorpayAPI {
+    private final LatencyProfile profile;
+
+    ReplayRazorpayAPI(LatencyProfile profile){
+        this.profile = profile;
+    }
+
+    @Override
+    public void makePayment(String orderId, double amount){
+        LatencyProfile.replay(profile, orderId);
+    }
+}
+
+// open loop: checkout i is due at start + i / rate. every checkout gets its own virtual thread.
+class CheckoutLoadGenerator {
+    static String run(String name, CheckoutService checkoutService, int ordersPerSecond, int seconds) throws InterruptedException {
+        int orders = ordersPerSecond * seconds;
+        long interval = 1_000_000_000L / ordersPerSecond;
+        LatencyRecorder latency = new LatencyRecorder();
+        LongAdder failed = new LongAdder();
+        long start = System.nanoTime();
+        try(ExecutorService checkouts = Executors.newVirtualThreadPerTaskExecutor()){
+            for(int i = 0; i < orders; i++){
+                long due = start + i * interval;
+                long wait = due - System.nanoTime();
+                if(wait > 0){
+                    LockSupport.parkNanos(wait);
+                }
+                String orderId = "ORD-" + i;
+                checkouts.execute(() -> {
+                    try{
+                        checkoutService.checkout(orderId, 99.0);
+                    } catch(RuntimeException e){
+                        failed.increment();
+                    } finally {
+                        latency.record(System.nanoTime() - due);
+                    }
+                });
+            }
+        }
+        long wall = System.nanoTime() - start;
+        return String.format("%-8s target %d/s for %ds: achieved %.0f/s, failed %d | p50=%.1fms p99=%.1fms p999=%.1fms",
+                name, ordersPerSecond, seconds, orders / (wall / 1e9), failed.sum(),
+                latency.percentile(0.50) / 1e6, latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6);
+    }
+}
+
+// usage:
+//   javac Main.java && java ReplayHarness profile.txt [ordersPerSecond] [seconds]
+class ReplayHarness {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 1){
+            System.err.println("usage: java ReplayHarness profile.txt [ordersPerSecond] [seconds]");
+            System.exit(1);
+        }
+        Map<String, LatencyProfile> profiles = LatencyProfile.load(Path.of(args[0]));
+        int ordersPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        for(LatencyProfile profile : profiles.values()){
+            System.out.println(CheckoutLoadGenerator.run(profile.gateway, new CheckoutService(gatewayFor(profile)), ordersPerSecond, seconds));
+        }
+    }
+
+    static PaymentGateway gatewayFor(LatencyProfile profile){
+        if(profile.gateway.equalsIgnoreCase("Razorpay")){
+            return new RazorpayAdapter(new ReplayRazorpayAPI(profile));
+        }
+        return new ReplayPayUGateway(profile);
+    }
+}
+
 public class Main {
-    public static void main(String[] args) {
+    // [4] checkout at 100 concurrent callers against the two phase stand ins.
+    static void runHedgedLoad(boolean hedging, double primaryFailureRate) throws InterruptedException {
+        IdempotencyLedger ledger = new IdempotencyLedger(TimeUnit.MINUTES.toMillis(10));
+        SimulatedTwoPhaseGateway payUApi = new SimulatedTwoPhaseGateway(10, 200, 0.05);
+        SimulatedTwoPhaseGateway razorpayApi = new SimulatedTwoPhaseGateway(15, 200, 0.05);
+        payUApi.setFailureRate(primaryFailureRate);
+        // the breaker window has to be bigger than the number of calls in flight, otherwise the slow calls that
+        // finish last in a burst look like an outage.
+        ProviderLink payU = new ProviderLink("PayU", payUApi, new CircuitBreaker(200, 50, 0.5, 100, 500));
+        ProviderLink razorpay = new ProviderLink("Razorpay", razorpayApi, new CircuitBreaker(200, 50, 0.5, 100, 500));
+        LatencyRecorder checkoutLatency = new LatencyRecorder();
+        LongAdder failed = new LongAdder();
+        int orders = 2_000;
+        Semaphore concurrentCallers = new Semaphore(100);
+        HedgedPaymentGateway gateway = new HedgedPaymentGateway(payU, razorpay, ledger, 50, 0.1, hedging);
+        try(gateway; ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()){
+            for(int i = 0; i < orders; i++){
+                String orderId = "ORD-" + i;
+                concurrentCallers.acquire();
+                callers.execute(() -> {
+                    long start = System.nanoTime();
+                    try{
+                        new CheckoutService(gateway).checkout(orderId, 99.0);
+                        checkoutLatency.record(System.nanoTime() - start);
+                    } catch(RuntimeException e){
+                        failed.increment();
+                    } finally {
+                        concurrentCallers.release();
+                    }
+                });
+            }
+        }
+        // closing the gateway waited for the losing hedges to finish voiding.
+        System.out.printf("hedging=%s payU failure=%.0f%% | checkout p50=%.1fms p99=%.1fms | failed=%d charges=%d (orders %d)%n  %s%n",
+                hedging, primaryFailureRate * 100, checkoutLatency.percentile(0.50) / 1e6, checkoutLatency.percentile(0.99) / 1e6,
+                failed.sum(), payUApi.charges.sum() + razorpayApi.charges.sum(), orders, gateway);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         /*
          [1] without Adapter pattern
          
@@ -131,6 +1241,68 @@ public class Main {
         checkoutService.checkout("12", 250.0);
         */
 
+        // [3] adapter as before.
+        CheckoutService checkoutService = new CheckoutService(new RazorpayAdapter());
+        checkoutService.checkout("12", 250.0);
+
+        // [3] 2000 payouts from 200 concurrent callers, batched into bulk calls (max 100 orders or 5ms).
+        RazorpayBatchAPI batchAPI = new RazorpayBatchAPI(20, 0.05, 0.01);
+        long start = System.nanoTime();
+        LongAdder declined = new LongAdder();
+        try(BatchingRazorpayAdapter batching = new BatchingRazorpayAdapter(batchAPI, 100, 5, 4)){
+            ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+            Semaphore concurrentCallers = new Semaphore(200);
+            for(int i = 0; i < 2_000; i++){
+                String orderId = "ORD-" + i;
+                concurrentCallers.acquireUninterruptibly();
+                callers.execute(() -> {
+                    try{
+                        new CheckoutService(batching).checkout(orderId, 99.0);
+                    } catch(IllegalStateException e){
+                        declined.increment();
+                    } finally {
+                        concurrentCallers.release();
+                    }
+                });
+            }
+            callers.close(); // wait for every caller before reading the report.
+            System.out.println(batching.report());
+        }
+        System.out.println("declined " + declined.sum() + ", " + batchAPI.calls() + " calls to Razorpay instead of 2000, took "
+                + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+        // [4] PayU with failover to Razorpay, using the real adapters. they only have pay(), so they are not hedged
+        // (that would charge twice), but the breaker times every PayU call and the ledger still dedupes retries.
+        IdempotencyLedger ledger = new IdempotencyLedger(TimeUnit.MINUTES.toMillis(10));
+        try(HedgedPaymentGateway failover = new HedgedPaymentGateway(
+                new ProviderLink("PayU", new PayOnCaptureGateway(new PayUGateway()), new CircuitBreaker(20, 10, 0.5, 100, 200)),
+                new ProviderLink("Razorpay", new PayOnCaptureGateway(new RazorpayAdapter()), new CircuitBreaker(20, 10, 0.5, 100, 200)),
+                ledger, 20, 0.1, false)){
+            new CheckoutService(failover).checkout("13", 400.0);
+            new CheckoutService(failover).checkout("13", 400.0); // retried by the client, charged only once.
+        }
+
+        // [4] 2000 orders, PayU takes 10ms but 5% of calls take 200ms. without and with hedging.
+        for(boolean hedging : new boolean[]{false, true}){
+            runHedgedLoad(hedging, 0.0);
+        }
+        // [4] PayU is down: the breaker opens and orders go straight to Razorpay.
+        runHedgedLoad(true, 1.0);
+
+        // [5] 1000 orders, 8 request threads, Razorpay takes 20ms, at most 64 Razorpay calls at once.
+        AsyncBridgeLoadTest.run(1_000, 8, 20, 64);
+
+        // [6] replay a recorded profile at 500 checkouts/s for 2s per gateway.
+        Path profileFile = Files.createTempFile("gateway-latency", ".txt");
+        Files.writeString(profileFile, String.join("\n",
+                "# gateway  error rate   latency percentiles in ms",
+                "PayU       error=0.01   p0=4 p50=12 p90=25 p99=80 p999=250 p100=400",
+                "Razorpay   error=0.02   p0=6 p50=15 p90=30 p99=60 p999=120 p100=200"));
+        for(LatencyProfile profile : LatencyProfile.load(profileFile).values()){
+            System.out.println(CheckoutLoadGenerator.run(profile.gateway, new CheckoutService(ReplayHarness.gatewayFor(profile)), 500, 2));
+        }
+        Files.delete(profileFile);
+
         //when to use?
         // when we want to use an existing class but its interface does not enable the one we need.
         // we want to reuse legacy code without modifying it.
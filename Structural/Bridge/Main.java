@@ -1,4 +1,14 @@
 // package Structural.Bridge;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /* 
 // [1] without bridge pattern.
@@ -55,24 +65,37 @@ class Web4KPlayer implements PlayQuality {
 //[2] with bridge pattern.
 interface VideoQuality{
     void load(String title);
+    int bitrateKbps();
 }
 
 class SDQuality implements VideoQuality{
     public void load(String title){
         System.out.println("Streaming " + title + " in SD Quality");
     }
+
+    public int bitrateKbps(){
+        return 1500;
+    }
 }
 
 class HDQuality implements VideoQuality {
     public void load(String title) {
         System.out.println("Streaming " + title + " in HD Quality");
     }
+
+    public int bitrateKbps() {
+        return 5000;
+    }
 }
 
 class UltraHDQuality implements VideoQuality {
     public void load(String title) {
         System.out.println("Streaming " + title + " in 4K Ultra HD Quality");
     }
+
+    public int bitrateKbps() {
+        return 16000;
+    }
 }
 // can create 4k easily.
 
@@ -108,8 +131,803 @@ class MobilePlayer extends VideoPlayer {
     }
 }
 
+// [3] adaptive bitrate.
+// with a fixed quality the player either stalls when the network slows down (UltraHD on a bad connection)
+// or looks worse than it has to (SD on a good one).
+// the video is cut into segments of a few seconds and every segment exists in every quality.
+// after each download the player measures the throughput and picks the quality of the next segment.
+// this is the bridge at work: the player keeps its logic and just swaps its VideoQuality between segments.
+// throughput jumps around, so switching on every measurement makes the picture flicker between qualities.
+// hysteresis: go up only with clear headroom and after staying at the current quality for a while.
+// go down as soon as the quality no longer fits or the buffer is running low.
+
+// how a segment gets to the player. download returns the seconds it took, idle lets time pass while the buffer is full.
+interface SegmentLink {
+    double download(String title, int segment, long bytes);
+    void idle(double seconds);
+}
+
+// replays a throughput trace (seconds, kbps per line) in simulated time, looping at the end.
+class TraceLink implements SegmentLink {
+    private final double[] durations;
+    private final double[] kbps;
+    private final double totalSeconds;
+    private double now;
+
+    TraceLink(double[] durations, double[] kbps){
+        this.durations = durations;
+        this.kbps = kbps;
+        this.totalSeconds = Arrays.stream(durations).sum();
+    }
+
+    static TraceLink load(Path file) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file);
+        for(int n = 0; n < lines.size(); n++){
+            String line = lines.get(n).strip();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            if(tokens.length != 2){
+                throw new IllegalArgumentException(file + ":" + (n + 1) + ": expected <seconds> <kbps>");
+            }
+            double seconds = Double.parseDouble(tokens[0]);
+            double rowKbps = Double.parseDouble(tokens[1]);
+            // zero bandwidth or zero length would make download() loop forever. written as !(x > 0) so NaN is rejected too.
+            if(!(seconds > 0) || !(rowKbps > 0) || Double.isInfinite(seconds) || Double.isInfinite(rowKbps)){
+                throw new IllegalArgumentException(file + ":" + (n + 1) + ": seconds and kbps must be positive, got " + line);
+            }
+            rows.add(new double[]{seconds, rowKbps});
+        }
+        if(rows.isEmpty()){
+            throw new IllegalArgumentException(file + ": empty trace");
+        }
+        double[] durations = new double[rows.size()];
+        double[] kbps = new double[rows.size()];
+        for(int i = 0; i < rows.size(); i++){
+            durations[i] = rows.get(i)[0];
+            kbps[i] = rows.get(i)[1];
+        }
+        return new TraceLink(durations, kbps);
+    }
+
+    @Override
+    public double download(String title, int segment, long bytes){
+        double bitsLeft = bytes * 8.0;
+        double start = now;
+        while(bitsLeft > 0){
+            double offset = now % totalSeconds;
+            int i = 0;
+            while(offset >= durations[i]){
+                offset -= durations[i];
+                i++;
+            }
+            double windowLeft = durations[i] - offset;
+            double rate = kbps[i] * 1000;
+            double needed = bitsLeft / rate;
+            if(needed <= windowLeft){
+                now += needed;
+                bitsLeft = 0;
+            }
+            else{
+                now += windowLeft;
+                bitsLeft -= rate * windowLeft;
+            }
+        }
+        return now - start;
+    }
+
+    @Override
+    public void idle(double seconds){
+        now += seconds;
+    }
+}
+
+// picks the quality of the next segment from the measured throughput and the buffer level.
+class AbrController {
+    private final List<VideoQuality> ladder; // lowest bitrate first
+    private final boolean hysteresis;
+    private double fastKbps;
+    private double slowKbps;
+    private double lastKbps;
+    private int current;
+    private int segmentsAtCurrent;
+
+    AbrController(List<VideoQuality> ladder, boolean hysteresis){
+        this.ladder = new ArrayList<>(ladder);
+        this.ladder.sort(Comparator.comparingInt(VideoQuality::bitrateKbps));
+        this.hysteresis = hysteresis;
+    }
+
+    void onSegmentDownloaded(long bytes, double seconds){
+        double kbps = bytes * 8 / 1000.0 / Math.max(seconds, 1e-6);
+        // two moving averages: the fast one reacts to a drop quickly, the slow one ignores a short spike.
+        fastKbps = fastKbps == 0 ? kbps : 0.5 * kbps + 0.5 * fastKbps;
+        slowKbps = slowKbps == 0 ? kbps : 0.3 * kbps + 0.7 * slowKbps;
+        lastKbps = kbps;
+    }
+
+    VideoQuality next(double bufferSeconds){
+        int chosen;
+        if(lastKbps == 0){
+            chosen = 0; // nothing measured yet, start low.
+        }
+        else if(!hysteresis){
+            chosen = highestFitting(lastKbps);
+        }
+        else{
+            double estimate = Math.min(fastKbps, slowKbps);
+            chosen = current;
+            if(bufferSeconds < 6 || estimate < ladder.get(current).bitrateKbps()){
+                chosen = Math.min(current, highestFitting(estimate * 0.8));
+            }
+            else if(current + 1 < ladder.size()
+                    && estimate >= 1.3 * ladder.get(current + 1).bitrateKbps()
+                    && bufferSeconds >= 10
+                    && segmentsAtCurrent >= 3){
+                chosen = current + 1; // one step at a time.
+            }
+        }
+        segmentsAtCurrent = chosen == current ? segmentsAtCurrent + 1 : 1;
+        current = chosen;
+        return ladder.get(chosen);
+    }
+
+    private int highestFitting(double kbps){
+        int best = 0;
+        for(int i = 0; i < ladder.size(); i++){
+            if(ladder.get(i).bitrateKbps() <= kbps){
+                best = i;
+            }
+        }
+        return best;
+    }
+}
+
+class PlaybackStats {
+    int segments;
+    double segmentSeconds;
+    double startupSeconds;
+    double rebufferSeconds;
+    int switches;
+    long bitrateSum;
+    final Map<String, Integer> segmentsPerQuality = new LinkedHashMap<>();
+
+    double rebufferRatio(){
+        double played = segments * segmentSeconds;
+        return rebufferSeconds / (played + rebufferSeconds);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("rebuffer %5.2f%% (%5.1fs) | avg %5.0f kbps | %3d switches | startup %.2fs | %s",
+                100 * rebufferRatio(), rebufferSeconds, (double) bitrateSum / segments, switches, startupSeconds, segmentsPerQuality);
+    }
+}
+
+class AdaptiveVideoPlayer extends VideoPlayer {
+    private final String platform;
+    private final AbrController controller;
+    private final SegmentLink link;
+    private final double segmentSeconds;
+    private final double maxBufferSeconds;
+    private final int segments;
+
+    public AdaptiveVideoPlayer(String platform, AbrController controller, SegmentLink link,
+                               double segmentSeconds, double maxBufferSeconds, int segments){
+        super(controller.next(0));
+        this.platform = platform;
+        this.controller = controller;
+        this.link = link;
+        this.segmentSeconds = segmentSeconds;
+        this.maxBufferSeconds = maxBufferSeconds;
+        this.segments = segments;
+    }
+
+    public void play(String title){
+        System.out.println(platform + " Platform (adaptive):");
+        quality.load(title);
+        System.out.println(stream(title));
+    }
+
+    // downloads every segment, choosing the quality per segment, and keeps track of the playback buffer.
+    public PlaybackStats stream(String title){
+        PlaybackStats stats = new PlaybackStats();
+        stats.segmentSeconds = segmentSeconds;
+        double buffer = 0;
+        for(int segment = 0; segment < segments; segment++){
+            if(segment > 0){
+                VideoQuality next = controller.next(buffer);
+                if(next != quality){
+                    stats.switches++;
+                }
+                quality = next;
+            }
+            if(buffer + segmentSeconds > maxBufferSeconds){
+                double wait = buffer + segmentSeconds - maxBufferSeconds;
+                link.idle(wait); // buffer is full, wait until there is room for one more segment.
+                buffer -= wait;
+            }
+            long bytes = Math.round(quality.bitrateKbps() * 1000 / 8.0 * segmentSeconds); // segments need not be whole seconds.
+            double took = link.download(title, segment, bytes);
+            controller.onSegmentDownloaded(bytes, took);
+            if(segment == 0){
+                stats.startupSeconds = took;
+            }
+            else if(took > buffer){
+                stats.rebufferSeconds += took - buffer; // buffer ran dry, the video is frozen.
+                buffer = 0;
+            }
+            else{
+                buffer -= took;
+            }
+            buffer += segmentSeconds;
+            stats.segments++;
+            stats.bitrateSum += quality.bitrateKbps();
+            stats.segmentsPerQuality.merge(quality.getClass().getSimpleName(), 1, Integer::sum);
+        }
+        return stats;
+    }
+}
+
+// runs the same trace against fixed qualities, ABR without hysteresis and ABR with hysteresis.
+// usage:
+//   javac Main.java && java AbrSimulator trace.txt [segments]
+// trace.txt has one "<seconds> <kbps>" line per period.
+class AbrSimulator {
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1){
+            System.err.println("usage: java AbrSimulator trace.txt [segments]");
+            System.exit(1);
+        }
+        run(Path.of(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 150);
+    }
+
+    static void run(Path trace, int segments) throws IOException {
+        List<VideoQuality> ladder = List.of(new SDQuality(), new HDQuality(), new UltraHDQuality());
+        for(VideoQuality fixed : ladder){
+            AbrController only = new AbrController(List.of(fixed), false);
+            System.out.printf("%-16s %s%n", "fixed " + fixed.getClass().getSimpleName(), simulate(only, trace, segments));
+        }
+        System.out.printf("%-16s %s%n", "abr, no hyst.", simulate(new AbrController(ladder, false), trace, segments));
+        System.out.printf("%-16s %s%n", "abr, hysteresis", simulate(new AbrController(ladder, true), trace, segments));
+    }
+
+    private static PlaybackStats simulate(AbrController controller, Path trace, int segments) throws IOException {
+        return new AdaptiveVideoPlayer("Sim", controller, TraceLink.load(trace), 4, 30, segments).stream("Interstellar");
+    }
+}
+
+// [4] segment level loading from local media files.
+// reading a whole file before playing means the first frame waits for the last byte,
+// and the full file sits on the heap.
+// instead every rendition is a local file cut into fixed size segments (bitrate x segment length).
+// each segment is memory mapped on its own and handed out as a read only ByteBuffer over the mapped
+// pages, so nothing is copied onto the heap. the first frame only needs segment 0.
+// a background thread maps and pages in the next K segments while the current one plays.
+
+class MappedSegmentReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final long fileBytes;
+    private final long segmentBytes;
+    private final int prefetch;
+    private final ConcurrentHashMap<Integer, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+    private final Set<Integer> prefetching = ConcurrentHashMap.newKeySet(); // queued or loading, so each segment is queued once.
+    private final ExecutorService prefetcher;
+
+    MappedSegmentReader(Path file, long segmentBytes, int prefetch) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileBytes = channel.size();
+        this.segmentBytes = segmentBytes;
+        this.prefetch = prefetch;
+        this.prefetcher = prefetch == 0 ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    int segmentCount(){
+        return (int) ((fileBytes + segmentBytes - 1) / segmentBytes);
+    }
+
+    // read only view of the segment, position 0, limit = segment length. valid until close().
+    ByteBuffer segment(int index){
+        if(index < 0 || index >= segmentCount()){
+            throw new IndexOutOfBoundsException("Segment " + index + " of " + segmentCount());
+        }
+        ByteBuffer view = map(index).asReadOnlyBuffer();
+        mapped.keySet().removeIf(i -> i < index - 1); // played segments, the GC unmaps them once nobody holds a view.
+        if(prefetcher != null){
+            for(int next = index + 1; next <= index + prefetch && next < segmentCount(); next++){
+                if(!mapped.containsKey(next) && prefetching.add(next)){
+                    int toLoad = next;
+                    prefetcher.execute(() -> prefetch(toLoad));
+                }
+            }
+        }
+        return view;
+    }
+
+    // load() touches every page so playback does not fault on them. only a hint: if it fails,
+    // segment() maps the segment again and reports the error to the player.
+    private void prefetch(int index){
+        try{
+            map(index).load();
+        } catch(UncheckedIOException e){
+            // left for segment() to report.
+        } finally {
+            prefetching.remove(index);
+        }
+    }
+
+    private MappedByteBuffer map(int index){
+        return mapped.computeIfAbsent(index, i -> {
+            long offset = i * segmentBytes;
+            try{
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentBytes, fileBytes - offset));
+            } catch(IOException e){
+                throw new UncheckedIOException("Failed to map segment " + i, e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(prefetcher != null){
+            prefetcher.shutdownNow();
+            try{
+                prefetcher.awaitTermination(10, TimeUnit.SECONDS); // a prefetch still running must not map after the channel is closed.
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        mapped.clear();
+        channel.close();
+    }
+}
+
+// where the renditions live: <dir>/<title>.<quality>.media
+class MediaLibrary {
+    private final Path dir;
+
+    MediaLibrary(Path dir){
+        this.dir = dir;
+    }
+
+    Path fileFor(String title, VideoQuality quality){
+        return dir.resolve(title + "." + quality.getClass().getSimpleName() + ".media");
+    }
+
+    MappedSegmentReader open(String title, VideoQuality quality, int segmentSeconds, int prefetch) throws IOException {
+        long segmentBytes = (long) quality.bitrateKbps() * 1000 / 8 * segmentSeconds;
+        return new MappedSegmentReader(fileFor(title, quality), segmentBytes, prefetch);
+    }
+}
+
+// time to first frame and heap allocated: whole file on the heap vs mapped segments,
+// then a full play through where every segment is "decoded" (read once) with and without prefetch.
+// usage:
+//   javac Main.java && java SegmentLoadBenchmark [fileMB]
+class SegmentLoadBenchmark {
+    private static final int FIRST_FRAME_BYTES = 256 * 1024;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        run(args.length > 0 ? Integer.parseInt(args[0]) : 512);
+    }
+
+    static void run(int fileMB) throws IOException {
+        Path dir = Files.createTempDirectory("media");
+        MediaLibrary library = new MediaLibrary(dir);
+        VideoQuality quality = new UltraHDQuality();
+        Path file = library.fileFor("Interstellar", quality);
+        byte[] chunk = new byte[1 << 20];
+        try(FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+            for(int mb = 0; mb < fileMB; mb++){
+                ThreadLocalRandom.current().nextBytes(chunk);
+                out.write(ByteBuffer.wrap(chunk));
+            }
+        }
+        try{
+            Run[] results = new Run[4];
+            for(int round = 0; round < 3; round++){ // the last round is reported, the first ones warm up the JIT.
+                results[0] = measure(() -> wholeFile(file, false));
+                results[1] = measure(() -> mapped(library, quality, 0, false));
+                results[2] = measure(() -> wholeFile(file, true));
+                results[3] = measure(() -> mapped(library, quality, 0, true));
+            }
+            Run prefetched = measure(() -> mapped(library, quality, 3, true));
+            System.out.printf("%d MB UltraHD file, %d segments of 4s (%d KB)%n", fileMB,
+                    (fileMB * (1L << 20) + segmentBytes(quality) - 1) / segmentBytes(quality), segmentBytes(quality) / 1024);
+            System.out.printf("first frame   whole file: %8.2f ms, %8.1f MB heap | mapped: %6.2f ms, %6.3f MB heap%n",
+                    results[0].millis(), results[0].heapMB(), results[1].millis(), results[1].heapMB());
+            System.out.printf("play through  whole file: %8.2f ms, %8.1f MB heap | mapped: %6.2f ms, %6.3f MB heap | mapped + prefetch 3: %6.2f ms%n",
+                    results[2].millis(), results[2].heapMB(), results[3].millis(), results[3].heapMB(), prefetched.millis());
+        } finally {
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static long segmentBytes(VideoQuality quality){
+        return (long) quality.bitrateKbps() * 1000 / 8 * 4;
+    }
+
+    private static void wholeFile(Path file, boolean playThrough){
+        try{
+            ByteBuffer all = ByteBuffer.wrap(Files.readAllBytes(file));
+            sink = decode(all, playThrough ? all.capacity() : FIRST_FRAME_BYTES);
+        } catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void mapped(MediaLibrary library, VideoQuality quality, int prefetch, boolean playThrough){
+        try(MappedSegmentReader reader = library.open("Interstellar", quality, 4, prefetch)){
+            long checksum = 0;
+            int segments = playThrough ? reader.segmentCount() : 1;
+            for(int i = 0; i < segments; i++){
+                ByteBuffer segment = reader.segment(i);
+                checksum += decode(segment, playThrough ? segment.capacity() : FIRST_FRAME_BYTES);
+            }
+            sink = checksum;
+        } catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // stands in for the decoder: reads every long of the range once.
+    private static long decode(ByteBuffer buffer, int bytes){
+        long checksum = 0;
+        int end = Math.min(bytes, buffer.capacity()) & ~7;
+        for(int i = 0; i < end; i += 8){
+            checksum += buffer.getLong(i);
+        }
+        return checksum;
+    }
+
+    // heap = bytes allocated by this thread. a mapped segment lives outside the heap, so it barely shows up.
+    record Run(long nanos, long heapBytes) {
+        double millis(){
+            return nanos / 1e6;
+        }
+
+        double heapMB(){
+            return heapBytes / 1e6;
+        }
+    }
+
+    private static Run measure(Runnable body){
+        long heapBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        return new Run(System.nanoTime() - start, THREADS.getCurrentThreadAllocatedBytes() - heapBefore);
+    }
+}
+
+// [5] transcoding every rendition in one pass.
+// the library needs each title in SD, HD and UltraHD. transcoding them one after the other reads the source
+// three times and uses one core.
+// here one reader reads the source once and puts every chunk on one bounded queue per rendition,
+// so all renditions share the same read. the chunk is a read only view and is never copied.
+// each rendition has its own workers (the CPU heavy part) and one writer that puts the chunks back
+// in order, so each output file is still written front to back.
+// bounded queues give backpressure: if UltraHD falls behind, its queue fills up and the reader waits,
+// instead of holding the whole source in memory.
+class TranscodePipeline {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final Chunk END = new Chunk(-1, null);
+
+    record Chunk(long sequence, ByteBuffer data) {}
+
+    // per stage counters, busy time is how long the stage was doing work (not waiting on a queue).
+    static final class Stage {
+        final String name;
+        final LongAdder bytes = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+
+        Stage(String name){
+            this.name = name;
+        }
+
+        String report(long wallNanos){
+            return String.format("%-22s %8.1f MB  %7.1f MB/s of wall  %7.1f MB/s while busy",
+                    name, bytes.sum() / 1e6, bytes.sum() / 1e6 / (wallNanos / 1e9),
+                    busyNanos.sum() == 0 ? 0.0 : bytes.sum() / 1e6 / (busyNanos.sum() / 1e9));
+        }
+    }
+
+    // stands in for the encoder: scales the chunk down to the rendition's bitrate, touching every
+    // source byte a few times so the cost is in the CPU and not in the disk.
+    static byte[] transcode(VideoQuality quality, ByteBuffer source){
+        int sourceBytes = source.remaining();
+        int outputBytes = (int) ((long) sourceBytes * quality.bitrateKbps() / new UltraHDQuality().bitrateKbps());
+        byte[] output = new byte[outputBytes];
+        int window = Math.max(1, sourceBytes / Math.max(1, outputBytes));
+        for(int out = 0; out < outputBytes; out++){
+            int acc = 0;
+            int from = out * window;
+            for(int i = from; i < from + window && i < sourceBytes; i++){
+                int value = source.get(source.position() + i);
+                for(int pass = 0; pass < 4; pass++){
+                    acc = acc * 31 + (value ^ pass); // a few mixing rounds per byte, like a filter would do.
+                }
+            }
+            output[out] = (byte) acc;
+        }
+        return output;
+    }
+
+    private final Path source;
+    private final MediaLibrary library;
+    private final String title;
+    private final List<VideoQuality> renditions;
+    private final int workersPerRendition;
+    private final int queueCapacity;
+
+    TranscodePipeline(Path source, MediaLibrary library, String title, List<VideoQuality> renditions,
+                      int workersPerRendition, int queueCapacity){
+        this.source = source;
+        this.library = library;
+        this.title = title;
+        this.renditions = renditions;
+        this.workersPerRendition = workersPerRendition;
+        this.queueCapacity = queueCapacity;
+    }
+
+    void run() throws IOException, InterruptedException {
+        int n = renditions.size();
+        List<ArrayBlockingQueue<Chunk>> inputs = new ArrayList<>();
+        List<ArrayBlockingQueue<Chunk>> outputs = new ArrayList<>();
+        List<Stage> stages = new ArrayList<>();
+        Stage read = new Stage("read");
+        stages.add(read);
+        for(VideoQuality quality : renditions){
+            inputs.add(new ArrayBlockingQueue<>(queueCapacity));
+            outputs.add(new ArrayBlockingQueue<>(queueCapacity));
+            stages.add(new Stage(quality.getClass().getSimpleName() + " encode"));
+        }
+        for(VideoQuality quality : renditions){
+            stages.add(new Stage(quality.getClass().getSimpleName() + " write"));
+        }
+
+        // samples every queue's depth, so we can see which rendition is the bottleneck.
+        long[] depthSum = new long[2 * n];
+        int[] depthMax = new int[2 * n];
+        long[] samples = new long[1];
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            for(int q = 0; q < n; q++){
+                sampleDepth(depthSum, depthMax, q, inputs.get(q).size());
+                sampleDepth(depthSum, depthMax, n + q, outputs.get(q).size());
+            }
+            samples[0]++;
+        }, 0, 5, TimeUnit.MILLISECONDS);
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        long start = System.nanoTime();
+        threads.add(stage("transcode-read", failures, threads, () -> read(inputs, read)));
+        for(int r = 0; r < n; r++){
+            VideoQuality quality = renditions.get(r);
+            ArrayBlockingQueue<Chunk> input = inputs.get(r);
+            ArrayBlockingQueue<Chunk> output = outputs.get(r);
+            Stage encode = stages.get(1 + r);
+            Stage write = stages.get(1 + n + r);
+            AtomicInteger workersLeft = new AtomicInteger(workersPerRendition);
+            for(int w = 0; w < workersPerRendition; w++){
+                threads.add(stage("transcode-" + encode.name + "-" + w, failures, threads, () -> encode(quality, input, output, encode, workersLeft)));
+            }
+            threads.add(stage("transcode-" + write.name, failures, threads, () -> write(quality, output, write)));
+        }
+        for(Thread thread : threads){
+            thread.start();
+        }
+        if(!failures.isEmpty()){
+            stopAll(threads); // a stage failed while the later ones were still being started.
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        long wall = System.nanoTime() - start;
+        sampler.shutdownNow();
+        sampler.awaitTermination(1, TimeUnit.SECONDS); // the last sample is written before we read the sums.
+        if(!failures.isEmpty()){
+            throw new IOException("Transcode of " + title + " failed", failures.get(0));
+        }
+
+        System.out.printf("%d renditions, %d encode workers each, queues of %d chunks, took %.0f ms%n",
+                n, workersPerRendition, queueCapacity, wall / 1e6);
+        for(Stage stage : stages){
+            System.out.println("  " + stage.report(wall));
+        }
+        for(int q = 0; q < n; q++){
+            String name = renditions.get(q).getClass().getSimpleName();
+            System.out.printf("  %-22s queue depth: to encoders avg %.1f max %d | to writer avg %.1f max %d%n", name,
+                    (double) depthSum[q] / Math.max(1, samples[0]), depthMax[q],
+                    (double) depthSum[n + q] / Math.max(1, samples[0]), depthMax[n + q]);
+        }
+    }
+
+    private static void sampleDepth(long[] depthSum, int[] depthMax, int queue, int depth){
+        depthSum[queue] += depth;
+        depthMax[queue] = Math.max(depthMax[queue], depth);
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    // the first stage to fail interrupts all the others. otherwise they would block forever on a queue
+    // that nobody empties (a writer that died) or fills (a reader that died).
+    private static Thread stage(String name, List<Throwable> failures, List<Thread> all, Body body){
+        return new Thread(() -> {
+            try{
+                body.run();
+            } catch(Throwable e){
+                failures.add(e);
+                stopAll(all);
+            }
+        }, name);
+    }
+
+    private static void stopAll(List<Thread> threads){
+        for(Thread thread : threads){
+            if(thread != Thread.currentThread()){
+                thread.interrupt();
+            }
+        }
+    }
+
+    private void read(List<ArrayBlockingQueue<Chunk>> inputs, Stage stage) throws IOException, InterruptedException {
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ)){
+            long sequence = 0;
+            while(true){
+                long busyFrom = System.nanoTime();
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                while(chunk.hasRemaining() && in.read(chunk) != -1){
+                    // keep reading until the chunk is full or the file ends.
+                }
+                chunk.flip();
+                stage.busyNanos.add(System.nanoTime() - busyFrom);
+                if(!chunk.hasRemaining()){
+                    break;
+                }
+                stage.bytes.add(chunk.remaining());
+                for(ArrayBlockingQueue<Chunk> input : inputs){
+                    input.put(new Chunk(sequence, chunk.asReadOnlyBuffer())); // same bytes, own position per rendition.
+                }
+                sequence++;
+            }
+        }
+        // END only on success. after a failure every stage gets interrupted instead, and a blocking put
+        // in a finally would wait forever on a queue whose consumers are already gone.
+        for(ArrayBlockingQueue<Chunk> input : inputs){
+            for(int w = 0; w < workersPerRendition; w++){
+                input.put(END);
+            }
+        }
+    }
+
+    private static void encode(VideoQuality quality, ArrayBlockingQueue<Chunk> input, ArrayBlockingQueue<Chunk> output,
+                               Stage stage, AtomicInteger workersLeft) throws InterruptedException {
+        while(true){
+            Chunk chunk = input.take();
+            if(chunk == END){
+                if(workersLeft.decrementAndGet() == 0){
+                    output.put(END); // the last worker out tells the writer. a failed worker never gets here.
+                }
+                return;
+            }
+            long busyFrom = System.nanoTime();
+            byte[] encoded = transcode(quality, chunk.data());
+            stage.busyNanos.add(System.nanoTime() - busyFrom);
+            stage.bytes.add(chunk.data().remaining());
+            output.put(new Chunk(chunk.sequence(), ByteBuffer.wrap(encoded)));
+        }
+    }
+
+    // chunks arrive out of order from the workers, the writer holds the early ones until the gap is filled.
+    private void write(VideoQuality quality, ArrayBlockingQueue<Chunk> output, Stage stage) throws IOException, InterruptedException {
+        try(FileChannel out = FileChannel.open(library.fileFor(title, quality),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            Map<Long, ByteBuffer> waiting = new HashMap<>();
+            long next = 0;
+            while(true){
+                Chunk chunk = output.take();
+                if(chunk == END){
+                    break;
+                }
+                waiting.put(chunk.sequence(), chunk.data());
+                long busyFrom = System.nanoTime();
+                for(ByteBuffer data = waiting.remove(next); data != null; data = waiting.remove(++next)){
+                    stage.bytes.add(data.remaining());
+                    while(data.hasRemaining()){
+                        out.write(data);
+                    }
+                }
+                stage.busyNanos.add(System.nanoTime() - busyFrom);
+            }
+            if(!waiting.isEmpty()){
+                throw new IOException(quality.getClass().getSimpleName() + " is missing chunk " + next);
+            }
+        }
+    }
+
+    // the old way, for comparison: one rendition after the other, each reading the source again, one thread.
+    static void runSequentially(Path source, MediaLibrary library, String title, List<VideoQuality> renditions) throws IOException {
+        for(VideoQuality quality : renditions){
+            try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(library.fileFor(title, quality),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                while(true){
+                    chunk.clear();
+                    while(chunk.hasRemaining() && in.read(chunk) != -1){
+                        // fill the chunk.
+                    }
+                    chunk.flip();
+                    if(!chunk.hasRemaining()){
+                        break;
+                    }
+                    ByteBuffer encoded = ByteBuffer.wrap(transcode(quality, chunk));
+                    while(encoded.hasRemaining()){
+                        out.write(encoded);
+                    }
+                }
+            }
+        }
+    }
+}
+
+// usage:
+//   javac Main.java && java TranscodeBenchmark [sourceMB] [workersPerRendition] [queueCapacity]
+class TranscodeBenchmark {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int sourceMB = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 3);
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        run(sourceMB, workers, queueCapacity);
+    }
+
+    static void run(int sourceMB, int workersPerRendition, int queueCapacity) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("transcode");
+        Path source = dir.resolve("Interstellar.source");
+        byte[] chunk = new byte[1 << 20];
+        try(FileChannel out = FileChannel.open(source, StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+            for(int mb = 0; mb < sourceMB; mb++){
+                ThreadLocalRandom.current().nextBytes(chunk);
+                out.write(ByteBuffer.wrap(chunk));
+            }
+        }
+        List<VideoQuality> renditions = List.of(new SDQuality(), new HDQuality(), new UltraHDQuality());
+        MediaLibrary sequential = new MediaLibrary(Files.createDirectory(dir.resolve("sequential")));
+        MediaLibrary pipelined = new MediaLibrary(Files.createDirectory(dir.resolve("pipelined")));
+        try{
+            long start = System.nanoTime();
+            TranscodePipeline.runSequentially(source, sequential, "Interstellar", renditions);
+            System.out.printf("sequential: %d MB source, %d renditions one after the other, took %.0f ms%n",
+                    sourceMB, renditions.size(), (System.nanoTime() - start) / 1e6);
+            new TranscodePipeline(source, pipelined, "Interstellar", renditions, workersPerRendition, queueCapacity).run();
+            for(VideoQuality quality : renditions){
+                long mismatch = Files.mismatch(sequential.fileFor("Interstellar", quality), pipelined.fileFor("Interstellar", quality));
+                System.out.println("  " + quality.getClass().getSimpleName() + " output matches sequential: " + (mismatch == -1));
+            }
+        } finally {
+            try(var files = Files.walk(dir)){
+                for(Path path : files.sorted(Comparator.reverseOrder()).toList()){
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
         VideoPlayer player1 = new WebPlayer(new HDQuality());
         player1.play("Interstellar");
 
@@ -117,6 +935,41 @@ public class Main {
         VideoPlayer player2 = new MobilePlayer(new UltraHDQuality());
         player2.play("Inception");
 
+        // [3] adaptive: a noisy trace, every 4s the throughput is +-50% around a mean that drifts
+        // from a good connection to a slow patch and back.
+        Path trace = Files.createTempFile("throughput", ".txt");
+        StringBuilder periods = new StringBuilder("# seconds kbps\n");
+        Random random = new Random(42);
+        int[] meanKbps = {9000, 20000, 3000, 1500, 12000, 25000};
+        for(int mean : meanKbps){
+            for(int i = 0; i < 25; i++){
+                periods.append("4 ").append((int) (mean * (0.5 + random.nextDouble()))).append('\n');
+            }
+        }
+        Files.writeString(trace, periods);
+        new AdaptiveVideoPlayer("Web", new AbrController(List.of(new SDQuality(), new HDQuality(), new UltraHDQuality()), true),
+                TraceLink.load(trace), 4, 30, 60).play("Interstellar");
+        AbrSimulator.run(trace, 150);
+        Files.delete(trace);
+
+        // [4] a small HD rendition read segment by segment. the whole file vs mapped comparison is
+        //   javac Main.java && java SegmentLoadBenchmark [fileMB]
+        Path mediaDir = Files.createTempDirectory("media");
+        MediaLibrary library = new MediaLibrary(mediaDir);
+        Path rendition = library.fileFor("Inception", new HDQuality());
+        Files.write(rendition, new byte[6 << 20]);
+        try(MappedSegmentReader reader = library.open("Inception", new HDQuality(), 4, 1)){
+            for(int i = 0; i < reader.segmentCount(); i++){
+                System.out.println("Inception HD segment " + i + ": " + reader.segment(i).remaining() / 1024 + " KB");
+            }
+        }
+        Files.delete(rendition);
+        Files.delete(mediaDir);
+
+        // [5] a 4 MB source into all three renditions in one pass. bigger sources:
+        //   javac Main.java && java TranscodeBenchmark [sourceMB] [workersPerRendition] [queueCapacity]
+        TranscodeBenchmark.run(4, 1, 4);
+
         //when to use?
         // you gave two dimensions.
         // you want to evolve independently. keep on adding quality and number of players.